@@ -20,20 +20,40 @@ package com.stoyanr.util;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 
 public class FileUtils {
     private static final int BUF_SIZE = 256 * 1024;
+    private static final long MAP_SIZE = 1024 * 1024 * 1024;
     
     public interface TextProcessor<T> {
         T process(String text, T state) throws InterruptedException;
     }
 
+    public interface BytesProcessor<T> {
+        T process(ByteBuffer bytes, T state) throws InterruptedException;
+    }
+
     public static String readFileToString(Path file) throws IOException {
         final StringBuilder sb = new StringBuilder();
         readFileAsync(file, (String text, Void x) -> {
@@ -55,27 +75,48 @@ public class FileUtils {
     }
 
     public static <T> void readFileAsync(Path file, TextProcessor<T> processor) throws IOException {
+        readFileAsync(file, 0, Long.MAX_VALUE, processor);
+    }
+
+    public static <T> void readFileBytesAsync(Path file, BytesProcessor<T> processor) 
+        throws IOException {
+        readFileBytesAsync(file, 0, Long.MAX_VALUE, processor);
+    }
+
+    public static <T> void readFileAsync(Path file, long start, long end, 
+        TextProcessor<T> processor) throws IOException {
+        readFileBytesAsync(file, start, end, decoding(processor));
+    }
+
+    /**
+     * Reads the specified range of the specified file in buffers of raw bytes, without decoding 
+     * them, and passes each buffer to the specified processor while the next one is being read. 
+     * Each buffer is newly allocated, so that the processor can hand it over to other threads. 
+     * After the last buffer, the processor is called once more with an empty buffer.
+     */
+    public static <T> void readFileBytesAsync(Path file, long start, long end, 
+        BytesProcessor<T> processor) throws IOException {
         try (AsynchronousFileChannel ac = AsynchronousFileChannel.open(file)) {
-            ByteBuffer buffer = ByteBuffer.allocate(BUF_SIZE);
             T rem = null;
-            int pos = 0, read;
-            String text = "";
+            long pos = start;
+            int read;
+            ByteBuffer bytes = null;
             do {
-                buffer.rewind();
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUF_SIZE, end - pos));
                 Future<Integer> future = ac.read(buffer, pos);
-                if (!text.isEmpty()) {
-                    rem = processor.process(text, rem);
-                }
-                while (!future.isDone()) {
-                    Thread.yield();
+                if (bytes != null) {
+                    rem = processor.process(bytes, rem);
                 }
-                buffer.flip();
-                read = future.get();
+                // Only the time spent waiting for the read to complete is traced
+                long t0 = Tracer.begin();
+                read = Math.max(future.get(), 0);
+                Tracer.end(Tracer.Event.READ, t0, file);
                 pos += read;
-                text = Charset.defaultCharset().decode(buffer).toString();
-            } while (read == buffer.capacity());
-            rem = processor.process(text, rem);
-            processor.process("", rem);
+                buffer.flip();
+                bytes = buffer;
+            } while (read == bytes.capacity() && pos < end);
+            rem = processor.process(bytes, rem);
+            processor.process(ByteBuffer.allocate(0), rem);
         } catch (IOException e) {
             throw e;
         } catch (ExecutionException | InterruptedException e) {
@@ -83,4 +124,165 @@ public class FileUtils {
                 e.getMessage()), e);
         }
     }
+
+    public static <T> void readFileMapped(Path file, TextProcessor<T> processor) 
+        throws IOException {
+        readFileMapped(file, 0, Long.MAX_VALUE, processor);
+    }
+
+    public static <T> void readFileMapped(Path file, long start, long end, 
+        TextProcessor<T> processor) throws IOException {
+        readFileBytesMapped(file, start, end, MAP_SIZE, decoding(processor));
+    }
+
+    public static <T> void readFileBytesMapped(Path file, BytesProcessor<T> processor) 
+        throws IOException {
+        readFileBytesMapped(file, 0, Long.MAX_VALUE, MAP_SIZE, processor);
+    }
+
+    public static <T> void readFileBytesMapped(Path file, long mapSize, 
+        BytesProcessor<T> processor) throws IOException {
+        readFileBytesMapped(file, 0, Long.MAX_VALUE, mapSize, processor);
+    }
+
+    public static <T> void readFileBytesMapped(Path file, long start, long end, 
+        BytesProcessor<T> processor) throws IOException {
+        readFileBytesMapped(file, start, end, MAP_SIZE, processor);
+    }
+
+    /**
+     * Reads the specified range of the specified file by mapping it into memory in windows of 
+     * the specified size, so that files larger than 2 GB can be read as well, and passes the 
+     * mapped bytes to the specified processor in buffers of the same size as 
+     * {@code readFileBytesAsync}. The buffers are views of the mapped windows, so the bytes are 
+     * not copied to the heap. After the last buffer, the processor is called once more with 
+     * an empty buffer.
+     */
+    public static <T> void readFileBytesMapped(Path file, long start, long end, long mapSize, 
+        BytesProcessor<T> processor) throws IOException {
+        if (mapSize <= 0 || mapSize > Integer.MAX_VALUE - BUF_SIZE) {
+            throw new IllegalArgumentException("Map size is not positive or too big.");
+        }
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long endx = Math.min(end, fc.size());
+            T rem = null;
+            for (long pos = start; pos < endx; pos += mapSize) {
+                long sizex = Math.min(mapSize, endx - pos);
+                long t0 = Tracer.begin();
+                MappedByteBuffer window = fc.map(MapMode.READ_ONLY, pos, sizex);
+                Tracer.end(Tracer.Event.READ, t0, file);
+                for (int off = 0; off < window.limit(); off += BUF_SIZE) {
+                    ByteBuffer bytes = window.duplicate();
+                    bytes.limit(Math.min(off + BUF_SIZE, window.limit()));
+                    bytes.position(off);
+                    rem = processor.process(bytes, rem);
+                }
+            }
+            processor.process(ByteBuffer.allocate(0), rem);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(String.format("Can't read file %s: %s", file.toString(), 
+                e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Reads up to the specified number of bytes from the specified position of the specified 
+     * file into a new buffer. The returned buffer contains fewer bytes if the end of the file 
+     * is reached.
+     */
+    public static ByteBuffer readFileBytes(Path file, long pos, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFileBytes(file, pos, buffer);
+        return buffer;
+    }
+
+    /**
+     * Reads bytes from the specified position of the specified file into the remaining space of 
+     * the specified buffer, with plain synchronous reads, and flips the buffer. This allows 
+     * the same buffer to be reused for reading many small files.
+     */
+    public static void readFileBytes(Path file, long pos, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        long t0 = Tracer.begin();
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && fc.read(buffer, pos + buffer.position() - start) > 0) {
+                // Keep reading until the buffer is full or the end of the file is reached
+            }
+        }
+        Tracer.end(Tracer.Event.READ, t0, file);
+        buffer.flip();
+    }
+
+    /**
+     * Walks the file tree rooted at the specified directory in parallel, calling the visitor for 
+     * each entry that is not a directory, without following symbolic links, just like 
+     * {@code Files.walkFileTree} calls {@code visitFile}. Each directory is listed by its own 
+     * fork / join task, which forks a new task for each of its subdirectories, so up to the 
+     * specified number of directories are listed at the same time, and idle threads steal the 
+     * subdirectories of busy ones. The visitor is called concurrently from several threads, and 
+     * files are visited in no particular order.
+     */
+    public static void walkFileTreePar(Path dir, BiConsumer<Path, BasicFileAttributes> visitor, 
+        int parLevel) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parLevel);
+        try {
+            pool.invoke(new WalkTask(dir, visitor));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> BytesProcessor<T> decoding(TextProcessor<T> processor) {
+        // A multi-byte char split between two buffers is carried over by the decoder
+        StreamDecoder decoder = new StreamDecoder(Charset.defaultCharset());
+        return (ByteBuffer bytes, T state) -> {
+            boolean last = !bytes.hasRemaining();
+            CharBuffer chars = decoder.decode(bytes, last);
+            String text = chars.toString();
+            chars.position(chars.limit());
+            if (last && !text.isEmpty()) {
+                // Chars replacing an incomplete sequence at the end, the empty text still follows
+                state = processor.process(text, state);
+                text = "";
+            }
+            return processor.process(text, state);
+        };
+    }
+
+    @SuppressWarnings("serial")
+    private static final class WalkTask extends RecursiveAction {
+
+        private final Path dir;
+        private final BiConsumer<Path, BasicFileAttributes> visitor;
+
+        WalkTask(Path dir, BiConsumer<Path, BasicFileAttributes> visitor) {
+            this.dir = dir;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, 
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        WalkTask task = new WalkTask(entry, visitor);
+                        task.fork();
+                        tasks.add(task);
+                    } else {
+                        visitor.accept(entry, attrs);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (WalkTask task : tasks) {
+                task.join();
+            }
+        }
+    }
 }
@@ -64,15 +64,24 @@ public class ForkJoinComputer<T> {
 
     public ForkJoinComputer(int size, int threshlod, Computer<T> computer, Merger<T> merger, 
         int parLevel) {
-        if (computer == null || merger == null) {
+        this(size, threshlod, computer, merger, new ForkJoinPool(parLevel));
+    }
+
+    /**
+     * Creates a computer that runs its tasks in the specified pool, with the parallelism level 
+     * of the pool. The pool is not shut down, so that it can be shared by many computations.
+     */
+    public ForkJoinComputer(int size, int threshlod, Computer<T> computer, Merger<T> merger, 
+        ForkJoinPool forkJoinPool) {
+        if (computer == null || merger == null || forkJoinPool == null) {
             throw new NullPointerException();
         }
         this.size = size;
         this.threshold = threshlod;
         this.computer = computer;
         this.merger = merger;
-        this.parLevel = parLevel;
-        this.forkJoinPool = new ForkJoinPool(parLevel);
+        this.parLevel = forkJoinPool.getParallelism();
+        this.forkJoinPool = forkJoinPool;
     }
 
     public T compute() {
@@ -92,38 +101,26 @@ public class ForkJoinComputer<T> {
 
         @Override
         protected T compute() {
-            logStarting();
-            T result;
             if (hi - lo <= Math.max(size / parLevel, threshold)) {
-                result = computer.compute(lo, hi);
-            } else {
-                int mid = (lo + hi) >>> 1;
-                Task t1 = new Task(lo, mid);
-                t1.fork();
-                Task t2 = new Task(mid, hi);
-                T r2 = t2.compute();
-                T r1 = t1.join();
-                result = merger.merge(r1, r2);
+                long t0 = Tracer.begin();
+                T result = computer.compute(lo, hi);
+                Tracer.end(Tracer.Event.COMPUTE, t0, lo, hi);
+                return result;
             }
-            logFinished();
+            long t0 = Tracer.begin();
+            int mid = (lo + hi) >>> 1;
+            Task t1 = new Task(lo, mid);
+            t1.fork();
+            Tracer.end(Tracer.Event.SPLIT, t0, lo, hi);
+            Task t2 = new Task(mid, hi);
+            T r2 = t2.compute();
+            // The join includes the time spent waiting for the forked task to be completed
+            long t3 = Tracer.begin();
+            T r1 = t1.join();
+            T result = merger.merge(r1, r2);
+            Tracer.end(Tracer.Event.JOIN, t3, lo, hi);
             return result;
         }
-
-        private void logStarting() {
-            if (Logger.isDebug()) {
-                Logger.debug("[Task %d - %d (%s)] Starting ...", lo, hi, getThreadName());
-            }
-        }
-
-        private void logFinished() {
-            if (Logger.isDebug()) {
-                Logger.debug("[Task %d - %d (%s)] Finished", lo, hi, getThreadName());
-            }
-        }
-    }
-
-    private static String getThreadName() {
-        return Thread.currentThread().getName();
     }
     
 }
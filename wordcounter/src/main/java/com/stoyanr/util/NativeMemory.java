@@ -0,0 +1,126 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growable block of native memory addressed by {@code long} positions, which can be larger
+ * than the 2 GB limit of a single {@code ByteBuffer}. Internally, this class encapsulates an array
+ * of direct byte buffers (segments) of up to 1 GB each. The memory is zeroed when allocated and
+ * released by the garbage collector together with the buffers, so the total amount is limited by
+ * {@code -XX:MaxDirectMemorySize}. Values of primitive types must not cross segment boundaries,
+ * which is guaranteed if they are aligned to their size. This class is not thread-safe.
+ *
+ * @author Stoyan Rachev
+ */
+public final class NativeMemory {
+
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final int SEGMENT_BITS = 30;
+    private static final int MIN_CAPACITY = 1024;
+
+    private ByteBuffer[] segments = new ByteBuffer[0];
+    private long capacity = 0;
+
+    public NativeMemory(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity is negative.");
+        }
+        ensureCapacity(capacity);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void ensureCapacity(long minCapacity) {
+        if (minCapacity <= capacity) {
+            return;
+        }
+        if (minCapacity <= SEGMENT_SIZE) {
+            // A single segment that is reallocated with double the capacity each time it grows
+            int newCapacity = (int) Math.min(SEGMENT_SIZE,
+                Math.max(Math.max(minCapacity, capacity << 1), MIN_CAPACITY));
+            ByteBuffer segment = allocate(newCapacity);
+            if (segments.length > 0) {
+                segments[0].clear();
+                segment.put(segments[0]);
+                segment.clear();
+            }
+            segments = new ByteBuffer[] { segment };
+            capacity = newCapacity;
+        } else {
+            ensureCapacity(SEGMENT_SIZE);
+            int n = (int) ((minCapacity + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            int i = segments.length;
+            segments = Arrays.copyOf(segments, n);
+            for (; i < n; i++) {
+                segments[i] = allocate(SEGMENT_SIZE);
+            }
+            capacity = (long) n << SEGMENT_BITS;
+        }
+    }
+
+    public byte get(long pos) {
+        return segment(pos).get(offset(pos));
+    }
+
+    public void get(long pos, byte[] dst, int off, int len) {
+        ByteBuffer bytes = segment(pos).duplicate();
+        bytes.position(offset(pos));
+        bytes.get(dst, off, len);
+    }
+
+    public void put(long pos, byte[] src, int off, int len) {
+        ByteBuffer bytes = segment(pos).duplicate();
+        bytes.position(offset(pos));
+        bytes.put(src, off, len);
+    }
+
+    public int getInt(long pos) {
+        return segment(pos).getInt(offset(pos));
+    }
+
+    public void putInt(long pos, int value) {
+        segment(pos).putInt(offset(pos), value);
+    }
+
+    public long getLong(long pos) {
+        return segment(pos).getLong(offset(pos));
+    }
+
+    public void putLong(long pos, long value) {
+        segment(pos).putLong(offset(pos), value);
+    }
+
+    private ByteBuffer segment(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long pos) {
+        return (int) (pos & (SEGMENT_SIZE - 1));
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
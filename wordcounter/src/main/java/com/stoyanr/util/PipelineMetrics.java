@@ -0,0 +1,219 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of the pipeline run by {@link ProducerConsumerExecutor}, which can be registered 
+ * as a standard MBean to be watched with any JMX client. The executor records the sizes of its 
+ * queues, the number of items passed through each stage, the time each stage spent blocked in 
+ * {@code put} and {@code take}, and the time the mediators and consumers spent processing items, 
+ * from which the busy ratio of their threads is derived. The files, bytes and words are recorded 
+ * by the code that runs in the pipeline.
+ * <p>
+ * All counters are {@code LongAdder} instances, so recording doesn't contend between threads and 
+ * costs about as much as the two {@code System.nanoTime} calls around each blocking operation. 
+ * Several executions can be recorded by the same instance, one after the other.
+ *
+ * @author Stoyan Rachev
+ */
+public final class PipelineMetrics implements PipelineMetricsMBean {
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder produced = new LongAdder();
+    private final LongAdder mediated = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder words = new LongAdder();
+    private final LongAdder producerPutBlocked = new LongAdder();
+    private final LongAdder mediatorTakeBlocked = new LongAdder();
+    private final LongAdder mediatorPutBlocked = new LongAdder();
+    private final LongAdder consumerTakeBlocked = new LongAdder();
+    private final LongAdder mediatorBusy = new LongAdder();
+    private final LongAdder consumerBusy = new LongAdder();
+    private final LongAdder elapsed = new LongAdder();
+    private final LongAdder threadTime = new LongAdder();
+    private volatile BlockingQueue<?> q1 = null;
+    private volatile BlockingQueue<?> q2 = null;
+    private volatile long start = 0;
+    private volatile int threads = 0;
+
+    /**
+     * Registers this instance with the platform MBean server under the specified object name, 
+     * for example {@code "com.stoyanr.wordcounter:type=PipelineMetrics"}.
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+
+    public void unregister(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+    }
+
+    public void addFile(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    public void addWords(long n) {
+        words.add(n);
+    }
+
+    @Override
+    public int getMediatorQueueSize() {
+        BlockingQueue<?> q = q1;
+        return (q != null) ? q.size() : 0;
+    }
+
+    @Override
+    public int getConsumerQueueSize() {
+        BlockingQueue<?> q = q2;
+        return (q != null) ? q.size() : 0;
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getProducedItems() {
+        return produced.sum();
+    }
+
+    @Override
+    public long getMediatedItems() {
+        return mediated.sum();
+    }
+
+    @Override
+    public long getConsumedItems() {
+        return consumed.sum();
+    }
+
+    @Override
+    public long getWords() {
+        return words.sum();
+    }
+
+    @Override
+    public long getProducerPutBlockedTime() {
+        return toMillis(producerPutBlocked.sum());
+    }
+
+    @Override
+    public long getMediatorTakeBlockedTime() {
+        return toMillis(mediatorTakeBlocked.sum());
+    }
+
+    @Override
+    public long getMediatorPutBlockedTime() {
+        return toMillis(mediatorPutBlocked.sum());
+    }
+
+    @Override
+    public long getConsumerTakeBlockedTime() {
+        return toMillis(consumerTakeBlocked.sum());
+    }
+
+    @Override
+    public double getMediatorBusyRatio() {
+        // Mediators put their results while processing an item, so the time blocked in put 
+        // doesn't count as busy
+        return getBusyRatio(mediatorBusy.sum() - mediatorPutBlocked.sum());
+    }
+
+    @Override
+    public double getConsumerBusyRatio() {
+        return getBusyRatio(consumerBusy.sum());
+    }
+
+    @Override
+    public long getElapsedTime() {
+        long t0 = start;
+        return toMillis(elapsed.sum() + ((t0 != 0) ? System.nanoTime() - t0 : 0));
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] { files, bytes, produced, mediated, consumed, 
+            words, producerPutBlocked, mediatorTakeBlocked, mediatorPutBlocked, 
+            consumerTakeBlocked, mediatorBusy, consumerBusy, elapsed, threadTime }) {
+            adder.reset();
+        }
+    }
+
+    void start(BlockingQueue<?> q1, BlockingQueue<?> q2, int threads) {
+        this.q1 = q1;
+        this.q2 = q2;
+        this.threads = threads;
+        this.start = System.nanoTime();
+    }
+
+    void finish() {
+        long t = System.nanoTime() - start;
+        elapsed.add(t);
+        threadTime.add(t * threads);
+        start = 0;
+        q1 = null;
+        q2 = null;
+    }
+
+    void addProduced(long blocked) {
+        produced.increment();
+        producerPutBlocked.add(blocked);
+    }
+
+    void addMediated(long blocked) {
+        mediated.increment();
+        mediatorPutBlocked.add(blocked);
+    }
+
+    void addMediatorBatch(long blocked, long busy) {
+        mediatorTakeBlocked.add(blocked);
+        mediatorBusy.add(busy);
+    }
+
+    void addConsumerBatch(int n, long blocked, long busy) {
+        consumed.add(n);
+        consumerTakeBlocked.add(blocked);
+        consumerBusy.add(busy);
+    }
+
+    private double getBusyRatio(long busy) {
+        long t0 = start;
+        long total = threadTime.sum() + ((t0 != 0) ? (System.nanoTime() - t0) * threads : 0);
+        return (total > 0) ? (double) busy / total : 0;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
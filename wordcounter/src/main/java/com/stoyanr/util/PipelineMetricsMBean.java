@@ -0,0 +1,59 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+/**
+ * The management interface of {@link PipelineMetrics}. Times are in milliseconds, and counts and 
+ * times are cumulative over all executions since the metrics were created.
+ *
+ * @author Stoyan Rachev
+ */
+public interface PipelineMetricsMBean {
+
+    int getMediatorQueueSize();
+
+    int getConsumerQueueSize();
+
+    long getFiles();
+
+    long getBytes();
+
+    long getProducedItems();
+
+    long getMediatedItems();
+
+    long getConsumedItems();
+
+    long getWords();
+
+    long getProducerPutBlockedTime();
+
+    long getMediatorTakeBlockedTime();
+
+    long getMediatorPutBlockedTime();
+
+    long getConsumerTakeBlockedTime();
+
+    double getMediatorBusyRatio();
+
+    double getConsumerBusyRatio();
+
+    long getElapsedTime();
+
+    void reset();
+}
@@ -17,11 +17,15 @@
  */
 package com.stoyanr.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /**
  * A generic Producer / Consumer executor. It starts a single producer task and multiple mediator
@@ -29,7 +33,20 @@ import java.util.concurrent.TimeUnit;
  * {@code T1} instances in a {@code BlockingQueue<T1>}. The mediators take these instances from 
  * there, convert them to {@code T2}, and put them in another blocking queue of type 
  * {@code BlockingQueue<T2>}. Finally, the consumers take the {@code T2} instances from the second 
- * blocking queue and process them.
+ * blocking queue and process them. By default, the queues are {@code LinkedBlockingQueue} 
+ * instances with a capacity equal to the parallelism level, but both the queue implementation, 
+ * for example {@link RingBufferQueue}, and the capacity of each queue can be specified upon 
+ * construction.
+ * <p>
+ * The end of the input is signalled explicitly through the queues rather than detected by 
+ * polling. When the producer finishes, it puts one end marker per mediator in the first queue. 
+ * Each mediator stops when it takes a marker, and the last mediator to stop puts one marker per 
+ * consumer in the second queue. Idle threads are therefore always parked in the queues, and the 
+ * pipeline terminates as soon as the last item is consumed.
+ * <p>
+ * If {@link PipelineMetrics} are set, the executor records the items passed through each stage 
+ * and the time spent blocked and processing them while it runs. If {@link Tracer} is enabled, 
+ * the time spent waiting in each {@code put} and {@code take} is traced.
  * 
  * @author Stoyan Rachev
  * @param <T1>
@@ -39,6 +56,13 @@ public class ProducerConsumerExecutor<T1, T2> {
     
     public static final int DEFAULT_PAR_LEVEL = Runtime.getRuntime().availableProcessors();
     
+    public static final IntFunction<BlockingQueue<Object>> RING_BUFFER_QUEUES = 
+        RingBufferQueue::new;
+    public static final IntFunction<BlockingQueue<Object>> LINKED_QUEUES = 
+        LinkedBlockingQueue::new;
+    
+    private static final Object END = new Object();
+    
     public interface Producer<T> {
         void produce(java.util.function.Consumer<T> block);
     }
@@ -55,8 +79,12 @@ public class ProducerConsumerExecutor<T1, T2> {
     private final Mediator<T1, T2> mediator;
     private final Consumer<T2> consumer;
     private final int parLevel;
-    private final BlockingQueue<T1> q1;
-    private final BlockingQueue<T2> q2;
+    private final BlockingQueue<Object> q1;
+    private final BlockingQueue<Object> q2;
+    private final int batch1;
+    private final int batch2;
+    private final AtomicInteger activeMediators = new AtomicInteger();
+    private PipelineMetrics metrics = null;
     private volatile ScheduledExecutorService producers = null;
     private volatile ScheduledExecutorService mediators = null;
     private volatile ScheduledExecutorService consumers = null;
@@ -68,38 +96,63 @@ public class ProducerConsumerExecutor<T1, T2> {
 
     public ProducerConsumerExecutor(Producer<T1> producer, Mediator<T1, T2> mediator, 
         Consumer<T2> consumer, int parLevel) {
-        if (producer == null || mediator == null || consumer == null) {
+        this(producer, mediator, consumer, parLevel, LINKED_QUEUES, parLevel, parLevel);
+    }
+
+    /**
+     * Creates an executor with stage queues created by the specified factory with the specified 
+     * capacities, for example {@link #RING_BUFFER_QUEUES} or {@link #LINKED_QUEUES}. The 
+     * mediators and the consumers claim up to their fair share of the capacity of their queue at 
+     * once, that is the capacity divided by the parallelism level, so with the default 
+     * capacities equal to the parallelism level they take one item at a time.
+     */
+    public ProducerConsumerExecutor(Producer<T1> producer, Mediator<T1, T2> mediator, 
+        Consumer<T2> consumer, int parLevel, IntFunction<BlockingQueue<Object>> queues, 
+        int capacity1, int capacity2) {
+        if (producer == null || mediator == null || consumer == null || queues == null) {
             throw new NullPointerException();
         }
+        if (parLevel <= 0 || capacity1 <= 0 || capacity2 <= 0) {
+            throw new IllegalArgumentException("Parallelism level or capacity is not positive.");
+        }
         this.producer = producer;
         this.mediator = mediator;
         this.consumer = consumer;
         this.parLevel = parLevel;
-        this.q1 = new LinkedBlockingQueue<>(parLevel);
-        this.q2 = new LinkedBlockingQueue<>(parLevel);
+        this.q1 = queues.apply(capacity1);
+        this.q2 = queues.apply(capacity2);
+        this.batch1 = Math.max(capacity1 / parLevel, 1);
+        this.batch2 = Math.max(capacity2 / parLevel, 1);
     }
     
+    public ProducerConsumerExecutor<T1, T2> setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     public void execute() {
         if (producers != null || mediators != null || consumers != null) {
             throw new IllegalStateException();
         }
         q1.clear();
         q2.clear();
+        activeMediators.set(parLevel);
+        if (metrics != null) {
+            metrics.start(q1, q2, parLevel);
+        }
         producers = createProducers();
         mediators = createMediators();
         consumers = createConsumers();
         try {
             shutdown(producers);
-            while (!q1.isEmpty()) {
-                Thread.yield();
-            }
             shutdown(mediators);
-            while (!q2.isEmpty()) {
-                Thread.yield();
-            }
             shutdown(consumers);
         } catch (InterruptedException e) {
             throw new RuntimeException(String.format("Interrupted: %s", e.getMessage()), e);
+        } finally {
+            if (metrics != null) {
+                metrics.finish();
+            }
         }
         producers = null;
         mediators = null;
@@ -108,14 +161,30 @@ public class ProducerConsumerExecutor<T1, T2> {
     
     private ScheduledExecutorService createProducers() {
         ScheduledExecutorService producers = new ScheduledThreadPoolExecutor(1);
-        producers.submit(() -> producer.produce(this::put1x));
+        producers.submit(() -> {
+            try {
+                producer.produce((t) -> {
+                    long blocked = put(q1, t, "Producer");
+                    if (metrics != null) {
+                        metrics.addProduced(blocked);
+                    }
+                });
+            } finally {
+                putEnd(q1, parLevel);
+            }
+        });
         return producers;
     }
 
     private ScheduledExecutorService createMediators() {
         ScheduledExecutorService mediators = new ScheduledThreadPoolExecutor(parLevel);
         for (int i = 0; i < parLevel; i++) {
-            mediators.submit(() -> mediate(mediator, this::put2x));
+            mediators.submit(() -> mediate(mediator, (t) -> {
+                long blocked = put(q2, t, "Mediator");
+                if (metrics != null) {
+                    metrics.addMediated(blocked);
+                }
+            }));
         }
         return mediators;
     }
@@ -133,101 +202,103 @@ public class ProducerConsumerExecutor<T1, T2> {
         return ses.awaitTermination(24, TimeUnit.HOURS);
     }
     
+    @SuppressWarnings("unchecked")
     private void mediate(Mediator<T1, T2> mediator, java.util.function.Consumer<T2> block) {
-        boolean finished = false;
-        while (!finished) {
-            try {
-                T1 t = take1();
-                if (t != null) {
-                    mediator.mediate(t, block);
-                } else {
-                    finished = true;
+        List<Object> batch = new ArrayList<>(batch1);
+        try {
+            boolean more = true;
+            while (more) {
+                long t0 = nanoTime();
+                more = take(q1, batch, batch1, "Mediator");
+                long t1 = nanoTime();
+                for (Object t : batch) {
+                    mediator.mediate((T1) t, block);
                 }
-            } catch (InterruptedException e) {
-                finished = true;
+                if (metrics != null) {
+                    metrics.addMediatorBatch(t1 - t0, nanoTime() - t1);
+                }
+                batch.clear();
+            }
+        } finally {
+            if (activeMediators.decrementAndGet() == 0) {
+                putEnd(q2, parLevel);
             }
         }
     }
 
+    @SuppressWarnings("unchecked")
     private void consume(Consumer<T2> consumer) {
-        boolean finished = false;
-        while (!finished) {
-            try {
-                T2 t = take2();
-                if (t != null) {
-                    consumer.consume(t);
-                } else {
-                    finished = true;
-                }
-            } catch (InterruptedException e) {
-                finished = true;
+        List<Object> batch = new ArrayList<>(batch2);
+        boolean more = true;
+        while (more) {
+            long t0 = nanoTime();
+            more = take(q2, batch, batch2, "Consumer");
+            long t1 = nanoTime();
+            for (Object t : batch) {
+                consumer.consume((T2) t);
+            }
+            if (metrics != null) {
+                metrics.addConsumerBatch(batch.size(), t1 - t0, nanoTime() - t1);
             }
+            batch.clear();
         }
     }
 
-    private void put1x(T1 t) {
+    /**
+     * Puts the item in the queue, waiting if needed, and returns the time spent waiting in 
+     * nanoseconds if metrics are recorded.
+     */
+    private long put(BlockingQueue<Object> q, Object t, String name) {
+        logDone(name, t);
+        long t0 = Tracer.begin();
+        long t1 = nanoTime();
         try {
-            put1(t);
+            q.put(t);
         } catch (InterruptedException e) {
         }
-    }
-    
-    private void put2x(T2 t) {
-        try {
-            put2(t);
-        } catch (InterruptedException e) {
-        }
-    }
-    
-    private void put1(T1 t) throws InterruptedException {
-        logDone("Producer", t);
-        long t0 = logQueueFull("Producer", q1);
-        q1.put(t);
-        logWaitTime("Producer", t0);
-    }
-
-    private T1 take1() throws InterruptedException {
-        long t0 = logQueueEmpty("Mediator", q1);
-        T1 t;
-        do {
-            t = q1.poll(1, TimeUnit.MILLISECONDS);
-        } while (t == null && !mediators.isShutdown());
-        logWaitTime("Mediator", t0);
-        logDone("Mediator", t);
-        return t;
-    }
-    
-    private void put2(T2 t) throws InterruptedException {
-        logDone("Mediator", t);
-        long t0 = logQueueFull("Mediator", q2);
-        q2.put(t);
-        logWaitTime("Mediator", t0);
+        Tracer.end(Tracer.Event.PUT, t0, null);
+        return nanoTime() - t1;
     }
 
-    private T2 take2() throws InterruptedException {
-        long t0 = logQueueEmpty("Consumer", q2);
-        T2 t;
-        do {
-            t = q2.poll(1, TimeUnit.MILLISECONDS);
-        } while (t == null && !consumers.isShutdown());
-        logWaitTime("Consumer", t0);
-        logDone("Consumer", t);
-        return t;
+    private long nanoTime() {
+        return (metrics != null) ? System.nanoTime() : 0;
     }
 
-    private <T> long logQueueFull(String name, BlockingQueue<T> q) {
-        long t0 = 0;
-        if (Logger.isDebug() && q.remainingCapacity() == 0) {
-            Logger.debug("[%s (%s)] Queue full, waiting ...", name, getThreadName());
-            t0 = System.nanoTime();
+    /**
+     * Takes at least one and up to the specified number of items into the batch, waiting if 
+     * needed. Returns {@code false} if an end marker was taken, in which case the batch only 
+     * contains the items preceding it.
+     */
+    private boolean take(BlockingQueue<Object> q, List<Object> batch, int max, String name) {
+        long t0 = Tracer.begin();
+        try {
+            batch.add(q.take());
+        } catch (InterruptedException e) {
+            return false;
+        }
+        if (max > 1) {
+            q.drainTo(batch, max - 1);
         }
-        return t0;
+        Tracer.end(Tracer.Event.TAKE, t0, null);
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) == END) {
+                // Markers are put after all items, so the rest of the batch consists of markers 
+                // that belong to other threads
+                putEnd(q, batch.size() - i - 1);
+                batch.subList(i, batch.size()).clear();
+                return false;
+            }
+            logDone(name, batch.get(i));
+        }
+        return true;
     }
 
-    private void logWaitTime(String name, long t0) {
-        if (Logger.isDebug() && t0 != 0) {
-            long t1 = System.nanoTime();
-            Logger.debug("[%s (%s)] Waited for %.2f us", name, getThreadName(), ((double) (t1 - t0)) / 1000);
+    private static void putEnd(BlockingQueue<Object> q, int n) {
+        try {
+            for (int i = 0; i < n; i++) {
+                q.put(END);
+            }
+        } catch (InterruptedException e) {
         }
     }
 
@@ -237,15 +308,6 @@ public class ProducerConsumerExecutor<T1, T2> {
         }
     }
 
-    private <T> long logQueueEmpty(String name, BlockingQueue<T> q) {
-        long t0 = 0;
-        if (Logger.isDebug() && q.isEmpty()) {
-            Logger.debug("[%s (%s)] Queue empty, waiting ...", name, getThreadName());
-            t0 = System.nanoTime();
-        }
-        return t0;
-    }
-
     private static String trim(String text) {
         return text.substring(0, Math.min(text.length(), 20));
     }
@@ -0,0 +1,365 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer / multi-consumer blocking queue backed by a preallocated ring buffer. 
+ * Each slot has a sequence number which tells whether it is free for the producer or filled for 
+ * the consumer at the current position, so that producers and consumers only compete for their 
+ * own position counter with a single CAS, and no lock is taken and nothing is allocated when 
+ * handing over an item. Consumers can claim a batch of consecutive items with a single CAS using 
+ * {@link #drainTo(Collection, int)}. The capacity is rounded up to a power of two, and is at 
+ * least two.
+ * <p>
+ * Threads only block when the queue is full or empty. They wait on a monitor after registering 
+ * themselves as waiters, and the other side takes the monitor to wake up one of them only if there 
+ * are any, so the monitors are not touched at all while the queue is neither full nor empty. 
+ * <p>
+ * Iterators are weakly consistent: they return the items between the head and the tail at the 
+ * time they are created which have not been taken yet. Removing items other than the head, 
+ * either with {@link #remove(Object)} or with an iterator, is not supported.
+ *
+ * @author Stoyan Rachev
+ * @param <E>
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Object notEmpty = new Object();
+    private final Object notFull = new Object();
+    private final AtomicInteger emptyWaiters = new AtomicInteger();
+    private final AtomicInteger fullWaiters = new AtomicInteger();
+
+    public RingBufferQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity is not positive or too big.");
+        }
+        // A single slot can't tell a filled slot from a free one in the next lap
+        int n = Math.max(Integer.highestOneBit(capacity - 1) << 1, 2);
+        items = new Object[n];
+        sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            sequences.set(i, i);
+        }
+        mask = n - 1;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (!enqueue(e)) {
+            return false;
+        }
+        signal(notEmpty, emptyWaiters);
+        return true;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (!enqueue(e)) {
+            synchronized (notFull) {
+                fullWaiters.incrementAndGet();
+                try {
+                    while (!enqueue(e)) {
+                        await(notFull, Long.MAX_VALUE);
+                    }
+                } finally {
+                    fullWaiters.decrementAndGet();
+                }
+            }
+        }
+        signal(notEmpty, emptyWaiters);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!enqueue(e)) {
+            long nanos = unit.toNanos(timeout);
+            synchronized (notFull) {
+                fullWaiters.incrementAndGet();
+                try {
+                    while (!enqueue(e)) {
+                        if ((nanos = await(notFull, nanos)) <= 0) {
+                            return false;
+                        }
+                    }
+                } finally {
+                    fullWaiters.decrementAndGet();
+                }
+            }
+        }
+        signal(notEmpty, emptyWaiters);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        E e = dequeue();
+        if (e != null) {
+            signal(notFull, fullWaiters);
+        }
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e = dequeue();
+        if (e == null) {
+            synchronized (notEmpty) {
+                emptyWaiters.incrementAndGet();
+                try {
+                    while ((e = dequeue()) == null) {
+                        await(notEmpty, Long.MAX_VALUE);
+                    }
+                } finally {
+                    emptyWaiters.decrementAndGet();
+                }
+            }
+        }
+        signal(notFull, fullWaiters);
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = dequeue();
+        if (e == null) {
+            long nanos = unit.toNanos(timeout);
+            synchronized (notEmpty) {
+                emptyWaiters.incrementAndGet();
+                try {
+                    while ((e = dequeue()) == null) {
+                        if ((nanos = await(notEmpty, nanos)) <= 0) {
+                            return null;
+                        }
+                    }
+                } finally {
+                    emptyWaiters.decrementAndGet();
+                }
+            }
+        }
+        signal(notFull, fullWaiters);
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        return itemAt(head.get());
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Claims up to the specified number of consecutive items with a single CAS, and adds them 
+     * to the specified collection. Returns the number of items claimed, which is 0 if the queue 
+     * is empty.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        long pos = head.get();
+        while (true) {
+            int n = 0;
+            while (n < maxElements && sequences.get((int) (pos + n) & mask) == pos + n + 1) {
+                n++;
+            }
+            if (n == 0 && sequences.get((int) pos & mask) < pos + 1) {
+                return 0;
+            }
+            if (n > 0 && head.compareAndSet(pos, pos + n)) {
+                for (int k = 0; k < n; k++) {
+                    int i = (int) (pos + k) & mask;
+                    c.add((E) items[i]);
+                    items[i] = null;
+                    sequences.set(i, pos + k + mask + 1);
+                }
+                signal(notFull, fullWaiters, n);
+                return n;
+            }
+            pos = head.get();
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, items.length));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return items.length - size();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Removing an item from a ring buffer queue.");
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final long start = head.get(), end = tail.get();
+        return new Iterator<E>() {
+            private long pos = start;
+            private E next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return (next != null);
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E e = next;
+                next = advance();
+                return e;
+            }
+
+            private E advance() {
+                E e = null;
+                while (e == null && pos < end) {
+                    e = itemAt(pos++);
+                }
+                return e;
+            }
+        };
+    }
+
+    /**
+     * Returns the item at the specified position, or null if it has not been put or has already 
+     * been taken.
+     */
+    @SuppressWarnings("unchecked")
+    private E itemAt(long pos) {
+        int i = (int) pos & mask;
+        if (sequences.get(i) != pos + 1) {
+            return null;
+        }
+        E e = (E) items[i];
+        // The item may have been taken and the slot filled again while reading it
+        return (sequences.get(i) == pos + 1) ? e : null;
+    }
+
+    private boolean enqueue(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long d = sequences.get(i) - pos;
+            if (d == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[i] = e;
+                    sequences.set(i, pos + 1);
+                    return true;
+                }
+            } else if (d < 0) {
+                // The slot still holds the item put one lap ago, so the queue is full
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long d = sequences.get(i) - (pos + 1);
+            if (d == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) items[i];
+                    items[i] = null;
+                    sequences.set(i, pos + mask + 1);
+                    return e;
+                }
+            } else if (d < 0) {
+                // The slot has not been filled yet, so the queue is empty
+                return null;
+            }
+            pos = head.get();
+        }
+    }
+
+    private static void signal(Object monitor, AtomicInteger waiters) {
+        signal(monitor, waiters, 1);
+    }
+
+    /**
+     * Wakes up as many waiters as there are items or slots that became available, up to the 
+     * number of registered waiters.
+     */
+    private static void signal(Object monitor, AtomicInteger waiters, int n) {
+        // Waiters register themselves before checking the queue again, so they can't be missed
+        if (waiters.get() > 0) {
+            synchronized (monitor) {
+                for (int k = Math.min(n, waiters.get()); k > 0; k--) {
+                    monitor.notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits on the monitor for up to the specified time, returning the remaining time. Only one 
+     * waiter is woken up for each item, so a waiter that gives up passes the wake-up it might 
+     * have received on to the next one.
+     */
+    private static long await(Object monitor, long nanos) throws InterruptedException {
+        if (nanos <= 0) {
+            monitor.notify();
+            return 0;
+        }
+        long t0 = System.nanoTime();
+        try {
+            if (nanos == Long.MAX_VALUE) {
+                monitor.wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(monitor, nanos);
+            }
+        } catch (InterruptedException e) {
+            monitor.notify();
+            throw e;
+        }
+        return (nanos == Long.MAX_VALUE) ? nanos : nanos - (System.nanoTime() - t0);
+    }
+}
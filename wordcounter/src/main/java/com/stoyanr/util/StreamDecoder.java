@@ -0,0 +1,128 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A decoder of a stream of bytes that arrives in several buffers, such as the buffers passed to 
+ * a {@link FileUtils.BytesProcessor}, into chars. Unlike {@code Charset.decode}, which decodes 
+ * each buffer on its own, it keeps a single {@code CharsetDecoder} for the whole stream and 
+ * carries a multi-byte sequence split between two buffers over to the next buffer, so that no 
+ * char is corrupted at buffer boundaries. Malformed and unmappable input is replaced, just like 
+ * with {@code Charset.decode}.
+ * <p>
+ * The chars are decoded into a single char buffer, which is reused for the whole stream and grows 
+ * only if needed. The caller reads the chars it can process, typically up to the last complete 
+ * word, and leaves the rest in the buffer, where the next call to {@link #decode} appends to them. 
+ * Since the buffer is overwritten by the next call, the caller must copy any chars it passes to 
+ * other threads. An instance can be reused for several streams, one after the other, but is not 
+ * thread-safe.
+ *
+ * @author Stoyan Rachev
+ */
+public final class StreamDecoder {
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int CARRY_CAPACITY = 16;
+
+    private final CharsetDecoder decoder;
+    private final ByteBuffer carry;
+    private CharBuffer chars;
+
+    public StreamDecoder(Charset charset) {
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        carry = ByteBuffer.allocate(CARRY_CAPACITY);
+        chars = CharBuffer.allocate(MIN_CAPACITY);
+        chars.flip();
+    }
+
+    /**
+     * Discards any state left over from a previous stream, for example if it was not read to 
+     * the end because of an error.
+     */
+    public void reset() {
+        decoder.reset();
+        carry.clear();
+        chars.clear();
+        chars.flip();
+    }
+
+    /**
+     * Decodes the specified bytes, after any incomplete sequence left over from the previous 
+     * bytes, and returns the char buffer ready to be read, with the new chars appended to the 
+     * chars that were not read after the previous call. If {@code last} is {@code true}, the end 
+     * of the stream is reached, so an incomplete sequence is replaced rather than carried over, 
+     * and the decoder is reset for the next stream. The chars left in the buffer are kept even 
+     * then, so the caller must read all of them.
+     */
+    public CharBuffer decode(ByteBuffer bytes, boolean last) {
+        long t0 = Tracer.begin();
+        chars.compact();
+        ensureRemaining(bytes.remaining() + carry.capacity());
+        // Complete the sequence split between the previous and these bytes, one byte at a time
+        while (carry.position() > 0 && bytes.hasRemaining()) {
+            carry.put(bytes.get());
+            carry.flip();
+            decodeChars(carry, false);
+            carry.compact();
+        }
+        if (carry.position() > 0) {
+            // All bytes went into the carry, which can only be complete at the end of the stream
+            carry.flip();
+            decodeChars(carry, last);
+            carry.compact();
+        } else {
+            decodeChars(bytes, last);
+            carry.put(bytes);
+        }
+        if (last) {
+            decoder.flush(chars);
+            decoder.reset();
+            carry.clear();
+        }
+        chars.flip();
+        Tracer.end(Tracer.Event.DECODE, t0, null);
+        return chars;
+    }
+
+    private void decodeChars(ByteBuffer in, boolean last) {
+        CoderResult result;
+        while ((result = decoder.decode(in, chars, last)).isOverflow()) {
+            ensureRemaining(Math.max(in.remaining(), MIN_CAPACITY));
+        }
+        assert (result.isUnderflow());
+    }
+
+    private void ensureRemaining(int bytes) {
+        int needed = (int) Math.ceil(bytes * (double) decoder.maxCharsPerByte()) + 1;
+        if (chars.remaining() < needed) {
+            CharBuffer charsx = CharBuffer.allocate(Math.max(chars.position() + needed, 
+                chars.capacity() << 1));
+            chars.flip();
+            charsx.put(chars);
+            chars = charsx;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An opt-in recorder of timed events, such as reading, decoding, or tokenizing a piece of a file, 
+ * or computing and joining a fork / join task, which can be exported in the Chrome trace event 
+ * format and viewed with {@code chrome://tracing} or Perfetto, with one track per thread.
+ * <p>
+ * Each thread records its events into its own ring buffer of fixed-size entries, so recording 
+ * takes no locks and formats nothing; only the buffer is registered once per thread. When a 
+ * buffer is full, the oldest events are overwritten. An event may refer to an arbitrary detail 
+ * object, for example the file being read, which is converted to a string only when exporting. 
+ * Details are kept reachable until then, so they should not hold on to large objects; a range of 
+ * indexes, such as the bounds of a fork / join task, is recorded as two ints instead. While 
+ * the recorder is disabled, which is the default, recording costs a single check of a static 
+ * field:
+ * <p>
+ * <pre>
+ * long t0 = Tracer.begin();
+ * // ...
+ * Tracer.end(Tracer.Event.READ, t0, file);
+ * </pre>
+ * <p>
+ * Exporting reads the buffers of all threads, so it must be done after the traced threads have 
+ * finished, for example at the end of a run.
+ *
+ * @author Stoyan Rachev
+ */
+public final class Tracer {
+
+    public enum Event {
+        READ, DECODE, TOKENIZE, MERGE, PUT, TAKE, SPLIT, COMPUTE, JOIN
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static volatile boolean enabled = false;
+    private static volatile ThreadLocal<Buffer> buffers = null;
+    private static volatile List<Buffer> all = null;
+    private static volatile long origin = 0;
+
+    private static final Object RANGE = new Object();
+
+    private Tracer() {
+        // No implementation needed
+    }
+
+    /**
+     * Enables recording, discarding any events recorded before, with per-thread buffers of 
+     * the specified number of events, rounded up to a power of 2.
+     */
+    public static synchronized void enable(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity is not positive.");
+        }
+        final List<Buffer> allx = new ArrayList<>();
+        final int capacityx = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        buffers = ThreadLocal.withInitial(() -> {
+            Buffer buffer = new Buffer(capacityx);
+            synchronized (allx) {
+                buffer.tid = allx.size();
+                allx.add(buffer);
+            }
+            return buffer;
+        });
+        all = allx;
+        origin = System.nanoTime();
+        enabled = true;
+    }
+
+    public static synchronized void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time of an event to be passed to {@link #end}, or 0 if the recorder is 
+     * disabled.
+     */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an event that started at the specified time and ends now, unless the recorder was 
+     * disabled when the event started.
+     */
+    public static void end(Event event, long t0, Object detail) {
+        if (t0 != 0) {
+            ThreadLocal<Buffer> local = buffers;
+            if (local != null) {
+                local.get().add(event, t0, System.nanoTime(), detail, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Records an event that started at the specified time and ends now, with the range of indexes 
+     * from {@code lo} inclusive to {@code hi} exclusive as its detail.
+     */
+    public static void end(Event event, long t0, int lo, int hi) {
+        if (t0 != 0) {
+            ThreadLocal<Buffer> local = buffers;
+            if (local != null) {
+                local.get().add(event, t0, System.nanoTime(), RANGE, lo, hi);
+            }
+        }
+    }
+
+    /**
+     * Exports all events recorded since the recorder was enabled to the specified file in 
+     * the Chrome trace event format, with timestamps in microseconds since it was enabled.
+     */
+    public static synchronized void export(Path file) throws IOException {
+        List<Buffer> allx = all;
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("{\"traceEvents\":[");
+            boolean first = true;
+            if (allx != null) {
+                synchronized (allx) {
+                    for (Buffer buffer : allx) {
+                        first = buffer.export(writer, origin, first);
+                    }
+                }
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Buffer {
+
+        private final String thread = Thread.currentThread().getName();
+        private final Event[] events;
+        private final long[] starts;
+        private final long[] ends;
+        private final Object[] details;
+        private final long[] ranges;
+        private int tid;
+        private long count = 0;
+
+        Buffer(int capacity) {
+            this.events = new Event[capacity];
+            this.starts = new long[capacity];
+            this.ends = new long[capacity];
+            this.details = new Object[capacity];
+            this.ranges = new long[capacity];
+        }
+
+        void add(Event event, long start, long end, Object detail, int lo, int hi) {
+            int i = (int) count & (events.length - 1);
+            events[i] = event;
+            starts[i] = start;
+            ends[i] = end;
+            details[i] = detail;
+            ranges[i] = ((long) lo << 32) | (hi & 0xFFFFFFFFL);
+            count++;
+        }
+
+        boolean export(Writer writer, long origin, boolean first) throws IOException {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(first ? "" : ",").append("\n{\"name\":\"thread_name\",\"ph\":\"M\",")
+                .append("\"pid\":1,\"tid\":").append(tid).append(",\"args\":{\"name\":\"")
+                .append(escape(thread)).append("\"}}");
+            writer.append(sb);
+            for (long j = Math.max(count - events.length, 0); j < count; j++) {
+                int i = (int) j & (events.length - 1);
+                sb.setLength(0);
+                sb.append(",\n{\"name\":\"").append(events[i].name().toLowerCase(Locale.ROOT))
+                    .append("\",\"cat\":\"wordcounter\",\"ph\":\"X\",\"ts\":");
+                appendMicros(sb, starts[i] - origin);
+                sb.append(",\"dur\":");
+                appendMicros(sb, ends[i] - starts[i]);
+                sb.append(",\"pid\":1,\"tid\":").append(tid);
+                if (details[i] == RANGE) {
+                    sb.append(",\"args\":{\"detail\":\"[").append((int) (ranges[i] >> 32))
+                        .append(", ").append((int) ranges[i]).append(")\"}");
+                } else if (details[i] != null) {
+                    sb.append(",\"args\":{\"detail\":\"").append(escape(details[i].toString()))
+                        .append("\"}");
+                }
+                writer.append(sb.append('}'));
+            }
+            return false;
+        }
+
+        private static void appendMicros(StringBuilder sb, long nanos) {
+            // Formatting with String.format would dominate the time to export large traces
+            long micros = nanos / 1000, rem = Math.abs(nanos % 1000);
+            sb.append((nanos < 0 && micros == 0) ? "-0" : "").append(micros).append('.');
+            sb.append((char) ('0' + rem / 100)).append((char) ('0' + rem / 10 % 10))
+                .append((char) ('0' + rem % 10));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A read-only snapshot of word counts, with words and counts copied to parallel arrays, so that 
+ * {@code forEachInRange} accesses the range directly instead of iterating up to its start. 
+ * Returned by {@link WordCounts#snapshot()}. Single words are looked up in an open addressing 
+ * index of positions in the arrays, so the snapshot doesn't refer to the word counts it was 
+ * taken from, which can be modified while it is in use.
+ *
+ * @author Stoyan Rachev
+ */
+final class ArrayWordCounts extends WordCounts {
+
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    private final String[] words;
+    private final int[] counts;
+    private final int[] index;
+    private final int shift;
+
+    ArrayWordCounts(WordCounts wc) {
+        super(null);
+        words = new String[wc.getSize()];
+        counts = new int[wc.getSize()];
+        int[] i = new int[] { 0 };
+        wc.forEach((word, count) -> {
+            words[i[0]] = word;
+            counts[i[0]++] = count;
+        });
+        // At most half of the slots are used, each holding a position plus one
+        int capacity = Integer.highestOneBit(Math.max(words.length, 1)) << 2;
+        index = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        for (int j = 0; j < words.length; j++) {
+            int k = slot(words[j].hashCode());
+            while (index[k] != 0) {
+                k = (k + 1) & (capacity - 1);
+            }
+            index[k] = j + 1;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return words.length;
+    }
+
+    @Override
+    public void add(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    public void set(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    void subtract(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    public int get(String word) {
+        for (int k = slot(word.hashCode()); index[k] != 0; k = (k + 1) & (index.length - 1)) {
+            if (words[index[k] - 1].equals(word)) {
+                return counts[index[k] - 1];
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Integer> block) {
+        forEachInRange(0, words.length, block);
+    }
+
+    @Override
+    public void forEachInRange(int lo, int hi, BiConsumer<String, Integer> block) {
+        for (int i = lo; i < hi; i++) {
+            block.accept(words[i], counts[i]);
+        }
+    }
+
+    @Override
+    public WordCounts snapshot() {
+        return this;
+    }
+
+    private int slot(int hash) {
+        return (hash * HASH_MULTIPLIER) >>> shift;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+/**
+ * Case folding of chars and words, used by the tokenizers to count words regardless of case 
+ * while scanning, instead of creating a lower case copy of each word. A char is folded to the 
+ * lower case of its upper case, the same way {@code String.equalsIgnoreCase} compares chars, so 
+ * that for example "ſ", "S" and "s" all fold to "s". ASCII chars are looked up in a small table, 
+ * which is faster than branching on their case, other chars of the BMP are looked up in a table 
+ * of the whole BMP, computed only when the first such char is folded, and supplementary code 
+ * points, which appear in words as surrogate pairs, are folded as code points once the word is 
+ * complete. Unlike {@code String.toLowerCase}, folding never changes the length of a word and 
+ * doesn't depend on the default locale.
+ *
+ * @author Stoyan Rachev
+ */
+final class CaseFolder {
+
+    private static final char[] ASCII = createTable(0x80);
+
+    private CaseFolder() {
+    }
+
+    static char fold(char c) {
+        return (c < 0x80) ? ASCII[c] : Bmp.TABLE[c];
+    }
+
+    static int foldCodePoint(int cp) {
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+
+    /**
+     * Folds the first {@code len} chars of the specified word in place, including its surrogate 
+     * pairs, returning the hash code of the folded word.
+     */
+    static int fold(char[] word, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            char c = word[i];
+            if (Character.isHighSurrogate(c) && i + 1 < len && 
+                Character.isLowSurrogate(word[i + 1])) {
+                int cp = foldCodePoint(Character.toCodePoint(c, word[i + 1]));
+                if (Character.isSupplementaryCodePoint(cp)) {
+                    word[i] = Character.highSurrogate(cp);
+                    word[i + 1] = Character.lowSurrogate(cp);
+                }
+                hash = 31 * hash + word[i++];
+            } else {
+                word[i] = fold(c);
+            }
+            hash = 31 * hash + word[i];
+        }
+        return hash;
+    }
+
+    static String fold(String word) {
+        char[] chars = word.toCharArray();
+        fold(chars, chars.length);
+        return new String(chars);
+    }
+
+    private static char[] createTable(int size) {
+        char[] table = new char[size];
+        for (int c = 0; c < size; c++) {
+            table[c] = Character.toLowerCase(Character.toUpperCase((char) c));
+        }
+        return table;
+    }
+
+    /**
+     * The table of the whole BMP, which is only computed once a non-ASCII char is folded.
+     */
+    private static final class Bmp {
+
+        static final char[] TABLE = createTable(Character.MAX_VALUE + 1);
+    }
+}
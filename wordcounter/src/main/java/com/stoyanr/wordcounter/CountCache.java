@@ -0,0 +1,401 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.stoyanr.util.Logger;
+
+/**
+ * A persistent cache of the word counts of files, used by {@link WordCounter} for counting only 
+ * the files that changed since the previous run. Each file is mapped to its size, last modified 
+ * time, and word counts, and the word counts of all files are stored once more as a total, which 
+ * is updated by subtracting the previous word counts of changed and deleted files and adding the 
+ * new ones. Words are stored before applying the unary operator, so a cache remains valid when 
+ * the operator changes. The settings that determine the words found in a file, that is the 
+ * predicate, the tokenizer, the charset and case folding, are saved with the cache, and a cache 
+ * saved with different settings is thrown away when opened, so that all files are counted again.
+ * <p>
+ * When opened, only the index of the cache file is read, with the size, last modified time and 
+ * position of the word counts of each file. The word counts of a file are only read if the file 
+ * changed, so a run reads and writes an amount of data proportional to the changed files and the 
+ * total vocabulary, plus the index. Changed word counts are appended to the cache file, followed 
+ * by a new index, and only then the position of the index at the beginning of the file is 
+ * updated. Once the word counts no longer in use take more than half of the file, the live ones 
+ * are copied to a temporary file without decoding them, which then replaces the cache file.
+ *
+ * @author Stoyan Rachev
+ */
+final class CountCache implements Closeable {
+
+    private static final int MAGIC = 0x57434303;
+
+    private final Path file;
+    private final String settings;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private FileChannel channel;
+    private Entry total;
+    private long indexLength;
+    private boolean changed;
+
+    private CountCache(Path file, String settings) {
+        this.file = file;
+        this.settings = settings;
+    }
+
+    /**
+     * Opens the specified cache file, reading only its index. If the file doesn't exist or was 
+     * saved with different settings, the returned cache is empty.
+     */
+    static CountCache open(Path file, String settings) throws IOException {
+        CountCache cache = new CountCache(file, settings);
+        if (Files.exists(file)) {
+            cache.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                if (!cache.readIndex()) {
+                    Logger.info("Cache %s was saved with different settings, counting all files", 
+                        file.toString());
+                    cache.close();
+                }
+            } catch (IOException e) {
+                cache.close();
+                throw e;
+            }
+        }
+        return cache;
+    }
+
+    boolean matches(Path path, long size, long lastModified) {
+        Entry entry = entries.get(getKey(path));
+        return (entry != null && entry.matches(size, lastModified));
+    }
+
+    /**
+     * Replaces the entries of the specified changed files, removes the entries of the files that 
+     * are no longer among the specified existing files, and returns the word counts of all 
+     * files. Only the previous word counts of changed and removed files and the total are read.
+     */
+    WordCounts update(Map<String, Entry> changedEntries, Set<String> keys) throws IOException {
+        WordCounts wc = new WordCounts();
+        if (total != null) {
+            read(total).forEach(wc::add);
+        }
+        List<String> removed = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (!keys.contains(key)) {
+                removed.add(key);
+            }
+        }
+        for (String key : removed) {
+            read(entries.remove(key)).forEach(wc::subtract);
+        }
+        for (Map.Entry<String, Entry> e : changedEntries.entrySet()) {
+            Entry previous = entries.put(e.getKey(), e.getValue());
+            if (previous != null) {
+                read(previous).forEach(wc::subtract);
+            }
+            e.getValue().forEach(wc::add);
+        }
+        if (total == null || !removed.isEmpty() || !changedEntries.isEmpty()) {
+            total = new Entry(0, 0, wc);
+            changed = true;
+        }
+        return wc;
+    }
+
+    /**
+     * Saves the changes made by {@link #update(Map, Set)}, if any, either by appending them to 
+     * the cache file, or by replacing it if it doesn't exist yet or is mostly unused.
+     */
+    void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        if (channel != null) {
+            append();
+        }
+        if (channel == null || channel.size() > 2 * getLiveLength()) {
+            replace();
+        }
+        changed = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    static Path getTempFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    static String getKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private boolean readIndex() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel)));
+        int magic = in.readInt();
+        if ((magic >>> 8) != (MAGIC >>> 8)) {
+            throw new IOException("Not a word count cache.");
+        }
+        // A cache of a different version or with different settings is not used at all
+        if (magic != MAGIC || !readString(in).equals(settings)) {
+            return false;
+        }
+        long indexOffset = in.readLong();
+        channel.position(indexOffset);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        total = Entry.readLocation(in);
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String key = readString(in);
+            entries.put(key, Entry.readLocation(in));
+        }
+        return true;
+    }
+
+    private Entry read(Entry entry) throws IOException {
+        if (entry.isRead()) {
+            return entry;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(entry.length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, entry.offset + bytes.position()) < 0) {
+                throw new EOFException("Cache is truncated.");
+            }
+        }
+        return entry.decode(bytes.array());
+    }
+
+    private void append() throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.position(out.size());
+            writeIndexOffset(out, writeEntries(out, false));
+        }
+    }
+
+    private void replace() throws IOException {
+        Path temp = getTempFile(file);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(header);
+            dout.writeInt(MAGIC);
+            writeString(dout, settings);
+            dout.writeLong(0);
+            writeFully(out, header.toByteArray());
+            writeIndexOffset(out, writeEntries(out, true));
+        }
+        close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the word counts that are not yet in the cache file, or all of them if copying, at 
+     * the current position of the channel, followed by the index, and returns the position of 
+     * the index. Word counts that are copied are not decoded.
+     */
+    private long writeEntries(FileChannel out, boolean copy) throws IOException {
+        List<Entry> all = new ArrayList<>(entries.values());
+        all.add(total);
+        for (Entry entry : all) {
+            if (entry.offset < 0 || copy) {
+                long offset = out.position();
+                if (entry.offset < 0) {
+                    writeFully(out, entry.encode());
+                } else {
+                    transferFully(entry.offset, entry.length, out);
+                }
+                entry.offset = offset;
+            }
+        }
+        long indexOffset = out.position();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(index);
+        total.writeLocation(dout);
+        dout.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            writeString(dout, e.getKey());
+            e.getValue().writeLocation(dout);
+        }
+        writeFully(out, index.toByteArray());
+        indexLength = index.size();
+        return indexOffset;
+    }
+
+    private void writeIndexOffset(FileChannel out, long indexOffset) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8);
+        bytes.putLong(0, indexOffset);
+        while (bytes.hasRemaining()) {
+            out.write(bytes, getHeaderLength() - 8 + bytes.position());
+        }
+    }
+
+    private long getLiveLength() {
+        long length = getHeaderLength() + total.length + indexLength;
+        for (Entry entry : entries.values()) {
+            length += entry.length;
+        }
+        return length;
+    }
+
+    private void transferFully(long offset, long length, FileChannel out) throws IOException {
+        for (long n = 0; n < length;) {
+            n += channel.transferTo(offset + n, length - n, out);
+        }
+    }
+
+    private int getHeaderLength() {
+        return 16 + settings.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeFully(FileChannel out, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The cached state of a file. An entry read from the index only knows where its word counts 
+     * are in the cache file, and they are read when needed. A new entry knows its word counts, 
+     * and where they are once they have been saved.
+     */
+    static final class Entry {
+
+        private final long size;
+        private final long lastModified;
+        private final String[] words;
+        private final int[] counts;
+        private long offset = -1;
+        private int length;
+        private byte[] bytes;
+
+        Entry(long size, long lastModified, WordCounts wc) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.words = new String[wc.getSize()];
+            this.counts = new int[wc.getSize()];
+            int[] i = new int[] { 0 };
+            wc.forEach((word, count) -> {
+                words[i[0]] = word;
+                counts[i[0]++] = count;
+            });
+        }
+
+        private Entry(long size, long lastModified, String[] words, int[] counts) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.words = words;
+            this.counts = counts;
+        }
+
+        boolean matches(long size, long lastModified) {
+            return (this.size == size && this.lastModified == lastModified);
+        }
+
+        void forEach(BiConsumer<String, Integer> block) {
+            for (int i = 0; i < words.length; i++) {
+                block.accept(words[i], counts[i]);
+            }
+        }
+
+        private boolean isRead() {
+            return (words != null);
+        }
+
+        private byte[] encode() throws IOException {
+            if (bytes == null) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bout);
+                out.writeInt(words.length);
+                for (int i = 0; i < words.length; i++) {
+                    writeString(out, words[i]);
+                    out.writeInt(counts[i]);
+                }
+                bytes = bout.toByteArray();
+                length = bytes.length;
+            }
+            return bytes;
+        }
+
+        private Entry decode(byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int n = in.readInt();
+            String[] words = new String[n];
+            int[] counts = new int[n];
+            for (int i = 0; i < n; i++) {
+                words[i] = readString(in);
+                counts[i] = in.readInt();
+            }
+            return new Entry(size, lastModified, words, counts);
+        }
+
+        private static Entry readLocation(DataInputStream in) throws IOException {
+            Entry entry = new Entry(in.readLong(), in.readLong(), null, null);
+            entry.offset = in.readLong();
+            entry.length = in.readInt();
+            return entry;
+        }
+
+        private void writeLocation(DataOutputStream out) throws IOException {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }
+    }
+}
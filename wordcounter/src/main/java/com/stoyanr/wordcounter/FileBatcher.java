@@ -0,0 +1,88 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Groups the small files visited by the producer of {@link WordCounter} into batches, so that 
+ * a mediator takes a whole batch as a single work unit instead of paying the hand-over and 
+ * asynchronous read costs once per file. A file is small if its size is below the maximum size 
+ * of a batch, and a batch is passed on as soon as it reaches the maximum number of files or 
+ * the maximum size. Any other file range is passed on as a unit of its own. Files may be added 
+ * concurrently by several threads.
+ *
+ * @author Stoyan Rachev
+ */
+final class FileBatcher {
+
+    private final int maxFiles;
+    private final long maxSize;
+    private final Consumer<List<FileRange>> block;
+    private List<FileRange> batch = new ArrayList<>();
+    private long size = 0;
+
+    FileBatcher(int maxFiles, long maxSize, Consumer<List<FileRange>> block) {
+        this.maxFiles = maxFiles;
+        this.maxSize = maxSize;
+        this.block = block;
+    }
+
+    boolean isSmall(long size) {
+        return (maxFiles > 1 && size < maxSize);
+    }
+
+    void add(FileRange range) {
+        if (!isSmall(range.getSize())) {
+            block.accept(Collections.singletonList(range));
+            return;
+        }
+        List<FileRange> full = null;
+        synchronized (this) {
+            batch.add(range);
+            size += range.getSize();
+            if (batch.size() >= maxFiles || size >= maxSize) {
+                full = take();
+            }
+        }
+        // The block may wait for space in the queue, so it is called outside of the lock
+        if (full != null) {
+            block.accept(full);
+        }
+    }
+
+    void flush() {
+        List<FileRange> rest;
+        synchronized (this) {
+            rest = take();
+        }
+        if (!rest.isEmpty()) {
+            block.accept(rest);
+        }
+    }
+
+    private List<FileRange> take() {
+        List<FileRange> result = batch;
+        batch = new ArrayList<>();
+        size = 0;
+        return result;
+    }
+}
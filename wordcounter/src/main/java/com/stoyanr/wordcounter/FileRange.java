@@ -0,0 +1,88 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.nio.file.Path;
+
+/**
+ * A range of bytes in a file, from {@code start} inclusive to {@code end} exclusive. The files
+ * processed by {@link WordCounter} in parallel are passed from the producer to the mediators as
+ * instances of this class, either as a single range covering the whole file, or as several
+ * ranges that start and end at word boundaries if the file is large enough to be split. Ranges
+ * of small files may be grouped into batches, see {@link FileBatcher}. A range covering the whole
+ * file is read up to the end of the file rather than up to the size seen by the traversal, since
+ * that may be the size of a symbolic link rather than of its target, or the file may have grown
+ * since it was visited.
+ *
+ * @author Stoyan Rachev
+ */
+final class FileRange {
+
+    private final Path file;
+    private final long start;
+    private final long end;
+    private final boolean whole;
+
+    FileRange(Path file, long size) {
+        this(file, 0, size, true);
+    }
+
+    FileRange(Path file, long start, long end) {
+        this(file, start, end, false);
+    }
+
+    private FileRange(Path file, long start, long end, boolean whole) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.whole = whole;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    long getSize() {
+        return end - start;
+    }
+
+    boolean isWhole() {
+        return whole;
+    }
+
+    /**
+     * Returns the position up to which the range is read, which is the end of the file for 
+     * a range covering the whole file.
+     */
+    long getReadEnd() {
+        return (whole) ? Long.MAX_VALUE : end;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%d, %d)", file.toString(), start, end);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.stoyanr.wordcounter.WordCounter.Schedule;
+
+/**
+ * Collects the files visited by the producer of {@link WordCounter} and passes them on in the 
+ * order determined by a {@link Schedule}, once the whole tree has been traversed. Files may be 
+ * added concurrently by several threads. Files with the same position in the schedule are passed 
+ * on in the order in which they were added.
+ *
+ * @author Stoyan Rachev
+ */
+final class FileScheduler {
+
+    private static final Pattern INODE = Pattern.compile("ino=(\\d+)");
+
+    private final Schedule schedule;
+    private final List<Entry> entries = new ArrayList<>();
+
+    FileScheduler(Schedule schedule) {
+        this.schedule = schedule;
+    }
+
+    void add(Path file, BasicFileAttributes attrs) {
+        add(file, attrs.size(), attrs.fileKey());
+    }
+
+    synchronized void add(Path file, long size, Object fileKey) {
+        entries.add(new Entry(file, size, getInode(fileKey)));
+    }
+
+    synchronized void forEach(BiConsumer<Path, Long> block) {
+        for (Entry entry : order()) {
+            block.accept(entry.file, entry.size);
+        }
+    }
+
+    private List<Entry> order() {
+        switch (schedule) {
+        case LARGEST_FIRST:
+            return sort(Comparator.comparingLong((Entry entry) -> entry.size).reversed());
+        case FILE_KEY:
+            return sort(Comparator.comparingLong((Entry entry) -> entry.inode));
+        case ROUND_ROBIN:
+            return interleave();
+        default:
+            return entries;
+        }
+    }
+
+    private List<Entry> sort(Comparator<Entry> comparator) {
+        List<Entry> result = new ArrayList<>(entries);
+        result.sort(comparator);
+        return result;
+    }
+
+    private List<Entry> interleave() {
+        // Take one file from each directory in turn, until all directories are exhausted
+        Map<Path, Queue<Entry>> dirs = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            dirs.computeIfAbsent(entry.file.getParent(), (dir) -> new ArrayDeque<>()).add(entry);
+        }
+        List<Entry> result = new ArrayList<>(entries.size());
+        List<Queue<Entry>> queues = new ArrayList<>(dirs.values());
+        while (!queues.isEmpty()) {
+            queues.removeIf((queue) -> {
+                result.add(queue.remove());
+                return queue.isEmpty();
+            });
+        }
+        return result;
+    }
+
+    private static long getInode(Object fileKey) {
+        // On Unix, the file key is printed as "(dev=..., ino=...)"; without an inode number, all 
+        // files are considered to be equal, so they keep the order in which they were added
+        if (fileKey == null) {
+            return 0;
+        }
+        Matcher m = INODE.matcher(fileKey.toString());
+        return m.find() ? Long.parseLong(m.group(1)) : 0;
+    }
+
+    private static final class Entry {
+
+        private final Path file;
+        private final long size;
+        private final long inode;
+
+        Entry(Path file, long size, long inode) {
+            this.file = file;
+            this.size = size;
+            this.inode = inode;
+        }
+    }
+}
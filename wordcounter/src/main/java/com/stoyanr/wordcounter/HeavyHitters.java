@@ -0,0 +1,236 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import com.stoyanr.util.Logger;
+
+/**
+ * An approximate summary of the most used words that needs a fixed amount of memory regardless 
+ * of the number of distinct words, based on the Space-Saving algorithm. It keeps at most 
+ * {@code capacity} words with their estimated counts and errors. When a new word is added to a 
+ * full summary, it replaces the word with the smallest count, taking over its count as error. 
+ * The estimated count of a word is never less than its actual count, and the actual count is 
+ * never less than the estimated count minus the error. Every word with an actual count larger 
+ * than the total count divided by the capacity is guaranteed to be kept. 
+ * <p>
+ * Summaries can be merged, with each word missing from a full summary assumed to have that 
+ * summary's smallest count as both count and error, so that the same guarantees hold for the 
+ * merged summary. Internally, this class encapsulates a min-heap of words, counts, and errors 
+ * kept in parallel arrays, and a map of words to their positions in the heap. The approximate 
+ * counting method of {@link WordCounter} returns instances of this class.
+ * 
+ * @author Stoyan Rachev
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+    private final Map<String, Integer> indexes;
+    private String[] words;
+    private long[] counts;
+    private long[] errors;
+    private int size = 0;
+    private long total = 0;
+
+    public HeavyHitters(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity is not positive.");
+        }
+        this.capacity = capacity;
+        this.indexes = new HashMap<>(Math.min(capacity, 1024) * 2);
+        allocate(Math.min(capacity, 1024));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount(String word) {
+        Integer i = indexes.get(word);
+        return (i != null) ? counts[i] : getMinCount();
+    }
+
+    public long getError(String word) {
+        Integer i = indexes.get(word);
+        return (i != null) ? errors[i] : getMinCount();
+    }
+
+    public void add(String word, long count) {
+        total += count;
+        Integer i = indexes.get(word);
+        if (i != null) {
+            counts[i] += count;
+            siftDown(i);
+        } else if (size < capacity) {
+            if (size == words.length) {
+                allocate(Math.min(capacity, size << 1));
+            }
+            set(size, word, count, 0);
+            siftUp(size++);
+        } else {
+            // Replace the word with the smallest count, which becomes the error of the new word
+            indexes.remove(words[0]);
+            set(0, word, counts[0] + count, counts[0]);
+            siftDown(0);
+        }
+    }
+
+    void add(WordTable table, UnaryOperator<String> op) {
+        table.forEach((word, count) -> add((op != null) ? op.apply(word) : word, count));
+    }
+
+    public HeavyHitters merge(HeavyHitters hh) {
+        long min1 = getMinCount(), min2 = hh.getMinCount();
+        Map<String, Integer> indexes2 = hh.indexes;
+        int n = size + hh.size;
+        String[] wordsx = new String[n];
+        long[] countsx = new long[n], errorsx = new long[n];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            Integer j = indexes2.get(words[i]);
+            wordsx[k] = words[i];
+            countsx[k] = counts[i] + ((j != null) ? hh.counts[j] : min2);
+            errorsx[k++] = errors[i] + ((j != null) ? hh.errors[j] : min2);
+        }
+        for (int j = 0; j < hh.size; j++) {
+            if (!indexes.containsKey(hh.words[j])) {
+                wordsx[k] = hh.words[j];
+                countsx[k] = hh.counts[j] + min1;
+                errorsx[k++] = hh.errors[j] + min1;
+            }
+        }
+        // Keep the words with the largest counts
+        Integer[] order = sort(wordsx, countsx, k);
+        indexes.clear();
+        size = 0;
+        total += hh.total;
+        allocate(Math.min(capacity, Math.max(k, 1)));
+        for (int i = 0; i < Math.min(k, capacity); i++) {
+            int j = order[i];
+            set(size, wordsx[j], countsx[j], errorsx[j]);
+            siftUp(size++);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the words with the largest estimated counts, in descending order of their counts. 
+     * Words with equal counts are ordered lexicographically. If {@code number} is 0, all words 
+     * are returned.
+     */
+    public String[] getTop(int number) {
+        if (number < 0) {
+            throw new IllegalArgumentException("Number is negative.");
+        }
+        Integer[] order = sort(words, counts, size);
+        int n = (number != 0) ? Math.min(number, size) : size;
+        String[] result = new String[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = words[order[i]];
+        }
+        return result;
+    }
+
+    public void print(PrintStream ps, int number) {
+        Logger.debug("Printing %d approximate word counts", number);
+        for (String word : getTop(number)) {
+            ps.printf("%20s: %d (error %d)\n", word, getCount(word), getError(word));
+        }
+    }
+
+    private long getMinCount() {
+        return (size == capacity) ? counts[0] : 0;
+    }
+
+    private static Integer[] sort(String[] words, long[] counts, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> (counts[i] != counts[j]) ? 
+            Long.compare(counts[j], counts[i]) : words[i].compareTo(words[j]));
+        return order;
+    }
+
+    private void allocate(int length) {
+        words = (words != null) ? Arrays.copyOf(words, length) : new String[length];
+        counts = (counts != null) ? Arrays.copyOf(counts, length) : new long[length];
+        errors = (errors != null) ? Arrays.copyOf(errors, length) : new long[length];
+    }
+
+    private void set(int i, String word, long count, long error) {
+        words[i] = word;
+        counts[i] = count;
+        errors[i] = error;
+        indexes.put(word, i);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[i] <= counts[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String word = words[i];
+        long count = counts[i], error = errors[i];
+        words[i] = words[j];
+        counts[i] = counts[j];
+        errors[i] = errors[j];
+        words[j] = word;
+        counts[j] = count;
+        errors[j] = error;
+        indexes.put(words[i], i);
+        indexes.put(words[j], j);
+    }
+}
@@ -17,18 +17,27 @@
  */
 package com.stoyanr.wordcounter;
 
+import java.io.IOException;
 import java.util.Arrays;
 
+import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.function.UnaryOperator;
+
+import javax.management.JMException;
 
 import com.stoyanr.util.Arguments;
 import com.stoyanr.util.ArgumentsException;
+import com.stoyanr.util.CharClassPredicate;
 import com.stoyanr.util.CharPredicate;
 import com.stoyanr.util.Logger;
+import com.stoyanr.util.PipelineMetrics;
+import com.stoyanr.util.Tracer;
+import com.stoyanr.wordcounter.WordCounter.Merging;
+import com.stoyanr.wordcounter.WordCounter.Schedule;
+import com.stoyanr.wordcounter.WordCounter.StageQueue;
+import com.stoyanr.wordcounter.WordCounter.Tokenizer;
+import com.stoyanr.wordcounter.WordCounter.Traversal;
 
 public class Main {
     private static final String ARG_PATH = "p";
@@ -39,14 +48,52 @@ public class Main {
     private static final String ARG_MODE = "m";
     private static final String ARG_PAR_LEVEL = "r";
     private static final String ARG_LOG_LEVEL = "l";
+    private static final String ARG_BYTES = "b";
+    private static final String ARG_MAP_THRESHOLD = "t";
+    private static final String ARG_SPLIT_THRESHOLD = "f";
+    private static final String ARG_MERGING = "g";
+    private static final String ARG_OFF_HEAP = "o";
+    private static final String ARG_APPROX = "a";
+    private static final String ARG_CACHE = "k";
+    private static final String ARG_WATCH = "w";
+    private static final String ARG_SAVE = "d";
+    private static final String ARG_LOAD = "u";
+    private static final String ARG_QUEUE = "q";
+    private static final String ARG_QUEUE_CAPACITY = "e";
+    private static final String ARG_PAR_WALK = "j";
+    private static final String ARG_BATCH_FILES = "x";
+    private static final String ARG_BATCH_SIZE = "y";
+    private static final String ARG_SCHEDULE = "z";
+    private static final String ARG_METRICS = "v";
+    private static final String ARG_TRACE = "h";
+    private static final String ARG_CHARSET = "cs";
+    private static final String ARG_CLASSES = "cl";
+    private static final String ARG_SWAR = "sw";
     private static final String ARGS_SCHEMA = ARG_PATH + "*," + ARG_CHARS + "*," + 
         ARG_IGNORE_CASE + "!," + ARG_NUMBER  + "#," + ARG_SER + "!," + ARG_MODE + "*," + 
-        ARG_PAR_LEVEL + "#," + ARG_LOG_LEVEL + "*";
+        ARG_PAR_LEVEL + "#," + ARG_LOG_LEVEL + "*," + ARG_BYTES + "!," + ARG_MAP_THRESHOLD + "#," + 
+        ARG_SPLIT_THRESHOLD + "#," + ARG_MERGING + "*," + ARG_OFF_HEAP + "!," + 
+        ARG_APPROX + "#," + ARG_CACHE + "*," + ARG_WATCH + "#," + 
+        ARG_SAVE + "*," + ARG_LOAD + "*," + ARG_QUEUE + "*," + ARG_QUEUE_CAPACITY + "#," + 
+        ARG_PAR_WALK + "!," + ARG_BATCH_FILES + "#," + ARG_BATCH_SIZE + "#," + 
+        ARG_SCHEDULE + "*," + ARG_METRICS + "!," + ARG_TRACE + "*," + ARG_CHARSET + "*," + 
+        ARG_CLASSES + "*," + ARG_SWAR + "!";
 
     private static final String MODE_TOP = "top";
     private static final String MODE_BOTTOM = "bottom";
     private static final String MODE_TOTAL = "total";
 
+    private static final String MERGING_SHARED = "shared";
+    private static final String MERGING_LOCAL = "local";
+
+    private static final String QUEUE_LINKED = "linked";
+    private static final String QUEUE_RING = "ring";
+
+    private static final String SCHEDULE_WALK = "walk";
+    private static final String SCHEDULE_LARGEST = "largest";
+    private static final String SCHEDULE_INODE = "inode";
+    private static final String SCHEDULE_ROUND = "round";
+
     private static final String LEVEL_ERROR = "error";
     private static final String LEVEL_WARNING = "warning";
     private static final String LEVEL_INFO = "info";
@@ -60,17 +107,64 @@ public class Main {
     private static final String DEFAULT_MODE = MODE_TOP;
     private static final int DEFAULT_PAR_LEVEL = Runtime.getRuntime().availableProcessors();
     private static final String DEFAULT_LOG_LEVEL = LEVEL_ERROR;
+    private static final boolean DEFAULT_BYTES = false;
+    private static final int DEFAULT_MAP_THRESHOLD = -1;
+    private static final int DEFAULT_SPLIT_THRESHOLD = -1;
+    private static final String DEFAULT_MERGING = MERGING_SHARED;
+    private static final boolean DEFAULT_OFF_HEAP = false;
+    private static final int DEFAULT_APPROX = 0;
+    private static final String DEFAULT_CACHE = null;
+    private static final int DEFAULT_WATCH = 0;
+    private static final String DEFAULT_SAVE = null;
+    private static final String DEFAULT_LOAD = null;
+    private static final String DEFAULT_QUEUE = QUEUE_LINKED;
+    private static final int DEFAULT_QUEUE_CAPACITY = 0;
+    private static final boolean DEFAULT_PAR_WALK = false;
+    private static final int DEFAULT_BATCH_FILES = 0;
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final String DEFAULT_SCHEDULE = SCHEDULE_WALK;
+    private static final boolean DEFAULT_METRICS = false;
+    private static final String DEFAULT_TRACE = null;
+    private static final String DEFAULT_CHARSET = Charset.defaultCharset().name();
+    private static final String DEFAULT_CLASSES = CharClassPredicate.ALPHABETIC;
+    private static final boolean DEFAULT_SWAR = false;
+
+    private static final String METRICS_NAME = "com.stoyanr.wordcounter:type=PipelineMetrics";
+    
+    private static final long MB = 1024 * 1024;
+    private static final int KB = 1024;
 
     private final String[] args;
 
     private String path;
-    private Set<Character> chars;
+    private String chars;
     private boolean ignoreCase;
     private int number;
     private boolean ser;
     private String mode;
     private int parLevel;
     private String logLevel;
+    private boolean bytes;
+    private int mapThreshold;
+    private int splitThreshold;
+    private String merging;
+    private boolean offHeap;
+    private int approx;
+    private String cache;
+    private int watch;
+    private String save;
+    private String load;
+    private String queue;
+    private int queueCapacity;
+    private boolean parWalk;
+    private int batchFiles;
+    private int batchSize;
+    private String schedule;
+    private boolean metrics;
+    private String trace;
+    private String charset;
+    private String classes;
+    private boolean swar;
 
     Main(final String[] args) {
         assert (args != null);
@@ -82,55 +176,106 @@ public class Main {
         try {
             final Arguments arguments = new Arguments(ARGS_SCHEMA, args);
             path = arguments.getString(ARG_PATH, DEFAULT_PATH);
-            chars = createChars(arguments.getString(ARG_CHARS, DEFAULT_CHARS));
+            chars = arguments.getString(ARG_CHARS, DEFAULT_CHARS);
             ignoreCase = arguments.getBoolean(ARG_IGNORE_CASE, DEFAULT_IGNORE_CASE);
             number = arguments.getInt(ARG_NUMBER, DEFAULT_NUMBER);
             ser = arguments.getBoolean(ARG_SER, DEFAULT_SER);
             mode = arguments.getString(ARG_MODE, DEFAULT_MODE);
             parLevel = arguments.getInt(ARG_PAR_LEVEL, DEFAULT_PAR_LEVEL);
             logLevel = arguments.getString(ARG_LOG_LEVEL, DEFAULT_LOG_LEVEL);
+            bytes = arguments.getBoolean(ARG_BYTES, DEFAULT_BYTES);
+            mapThreshold = arguments.getInt(ARG_MAP_THRESHOLD, DEFAULT_MAP_THRESHOLD);
+            splitThreshold = arguments.getInt(ARG_SPLIT_THRESHOLD, DEFAULT_SPLIT_THRESHOLD);
+            merging = arguments.getString(ARG_MERGING, DEFAULT_MERGING);
+            offHeap = arguments.getBoolean(ARG_OFF_HEAP, DEFAULT_OFF_HEAP);
+            approx = arguments.getInt(ARG_APPROX, DEFAULT_APPROX);
+            cache = arguments.getString(ARG_CACHE, DEFAULT_CACHE);
+            watch = arguments.getInt(ARG_WATCH, DEFAULT_WATCH);
+            save = arguments.getString(ARG_SAVE, DEFAULT_SAVE);
+            load = arguments.getString(ARG_LOAD, DEFAULT_LOAD);
+            queue = arguments.getString(ARG_QUEUE, DEFAULT_QUEUE);
+            queueCapacity = arguments.getInt(ARG_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+            parWalk = arguments.getBoolean(ARG_PAR_WALK, DEFAULT_PAR_WALK);
+            batchFiles = arguments.getInt(ARG_BATCH_FILES, DEFAULT_BATCH_FILES);
+            batchSize = arguments.getInt(ARG_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+            schedule = arguments.getString(ARG_SCHEDULE, DEFAULT_SCHEDULE);
+            metrics = arguments.getBoolean(ARG_METRICS, DEFAULT_METRICS);
+            trace = arguments.getString(ARG_TRACE, DEFAULT_TRACE);
+            charset = arguments.getString(ARG_CHARSET, DEFAULT_CHARSET);
+            classes = arguments.getString(ARG_CLASSES, DEFAULT_CLASSES);
+            swar = arguments.getBoolean(ARG_SWAR, DEFAULT_SWAR);
         } catch (ArgumentsException e) {
             reportError(e);
         }
     }
     
-    private static Set<Character> createChars(String s) {
-        Set<Character> result = new HashSet<>();
-        for (int i = 0; i < s.length(); i++) {
-            result.add(s.charAt(i));
-        }
-        return result;
-    }
-
     /**
      * Runs the program.
      */
     final void run() {
         try {
             setLogLevel();
-            WordCounter counter = new WordCounter(Paths.get(path), getPredicate(), getOperator(), 
-                !ser, parLevel);
-            long t0 = System.currentTimeMillis();
-            WordCounts wc = counter.count();
-            long t1 = System.currentTimeMillis();
-            WordCountAnalyzer analyzer = new WordCountAnalyzer(wc, !ser, parLevel);
-            long tx = 0;
-            switch (mode) {
-            case MODE_TOP:
-            case MODE_BOTTOM:
-                tx = runTopBottom(analyzer, wc);
-                break;
-            case MODE_TOTAL:
-                tx = runTotal(analyzer, wc);
-                break;
+            if (trace != null) {
+                Tracer.enable(Tracer.DEFAULT_CAPACITY);
+            }
+            WordCounter counter = new WordCounter(Paths.get(path), getPredicate(), null, !ser, 
+                parLevel).setTokenizer(bytes ? Tokenizer.BYTES : Tokenizer.CHARS)
+                .setCharset(Charset.forName(charset)).setFoldCase(ignoreCase).setSwar(swar)
+                .setMapThreshold((mapThreshold >= 0) ? mapThreshold * MB : -1)
+                .setSplitThreshold((splitThreshold >= 0) ? splitThreshold * MB : -1)
+                .setMerging(merging.equals(MERGING_LOCAL) ? Merging.LOCAL : Merging.SHARED)
+                .setOffHeap(offHeap).setCache((cache != null) ? Paths.get(cache) : null)
+                .setQueue(queue.equals(QUEUE_RING) ? StageQueue.RING_BUFFER : StageQueue.LINKED)
+                .setQueueCapacities(queueCapacity, queueCapacity)
+                .setTraversal(parWalk ? Traversal.PARALLEL : Traversal.SERIAL)
+                .setBatchLimits(batchFiles, batchSize * KB).setSchedule(getSchedule())
+                .setMetrics(metrics ? createMetrics() : null);
+            if (approx > 0) {
+                runApprox(counter);
+            } else if (watch > 0) {
+                runWatch(counter);
+            } else {
+                runCount(counter);
+            }
+            if (trace != null) {
+                Tracer.export(Paths.get(trace));
             }
-            Logger.info("Counting took %d ms", t1 - t0);
-            Logger.info("Analysis took %d ms", tx);
         } catch (final Exception e) {
             reportError(e);
         }
     }
+
+    private void runCount(WordCounter counter) throws IOException {
+        long t0 = System.currentTimeMillis();
+        WordCounts wc = (load != null) ? WordCounts.load(Paths.get(load)) : counter.count();
+        long t1 = System.currentTimeMillis();
+        if (save != null) {
+            wc.save(Paths.get(save));
+        }
+        long tx = runAnalysis(wc);
+        Logger.info("Counting took %d ms", t1 - t0);
+        Logger.info("Analysis took %d ms", tx);
+    }
     
+    private static PipelineMetrics createMetrics() throws JMException {
+        PipelineMetrics result = new PipelineMetrics();
+        result.register(METRICS_NAME);
+        return result;
+    }
+
+    private Schedule getSchedule() {
+        switch (schedule) {
+        case SCHEDULE_LARGEST:
+            return Schedule.LARGEST_FIRST;
+        case SCHEDULE_INODE:
+            return Schedule.FILE_KEY;
+        case SCHEDULE_ROUND:
+            return Schedule.ROUND_ROBIN;
+        default:
+            return Schedule.WALK;
+        }
+    }
+
     private void setLogLevel() {
         switch (logLevel) {
         case LEVEL_ERROR:
@@ -148,6 +293,49 @@ public class Main {
         }
     }
     
+    private void runApprox(WordCounter counter) {
+        if (!mode.equals(MODE_TOP) && !mode.equals(MODE_TOTAL)) {
+            throw new IllegalArgumentException(String.format(
+                "Mode %s is not supported with approximate counting.", mode));
+        }
+        long t0 = System.currentTimeMillis();
+        HeavyHitters hh = counter.countApprox(approx);
+        long t1 = System.currentTimeMillis();
+        if (mode.equals(MODE_TOP)) {
+            hh.print(System.out, number);
+        } else {
+            System.out.printf("Total words: %d\n", hh.getTotal());
+        }
+        Logger.info("Counting took %d ms", t1 - t0);
+    }
+    
+    private void runWatch(WordCounter counter) throws InterruptedException {
+        try (WordCountWatcher watcher = counter.watch()) {
+            while (true) {
+                WordCounts wc = watcher.snapshot();
+                long tx = runAnalysis(wc);
+                System.out.println();
+                Logger.info("Analysis took %d ms", tx);
+                Thread.sleep(watch * 1000L);
+            }
+        }
+    }
+
+    private long runAnalysis(WordCounts wc) {
+        WordCountAnalyzer analyzer = new WordCountAnalyzer(wc, !ser, parLevel);
+        long tx = 0;
+        switch (mode) {
+        case MODE_TOP:
+        case MODE_BOTTOM:
+            tx = runTopBottom(analyzer, wc);
+            break;
+        case MODE_TOTAL:
+            tx = runTotal(analyzer, wc);
+            break;
+        }
+        return tx;
+    }
+
     private long runTopBottom(WordCountAnalyzer analyzer, WordCounts wc) {
         int nx = Math.min(wc.getSize(), number);
         long t0 = System.currentTimeMillis();
@@ -159,7 +347,7 @@ public class Main {
 
     private long runTotal(WordCountAnalyzer analyzer, WordCounts wc) {
         long t0 = System.currentTimeMillis();
-        int total = analyzer.getTotal();
+        long total = analyzer.getTotal();
         long t1 = System.currentTimeMillis();
         System.out.printf("Total words: %d\n", total);
         return t1 - t0;
@@ -170,12 +358,7 @@ public class Main {
     }
     
     private CharPredicate getPredicate() {
-        return chars.isEmpty() ? Character::isAlphabetic : 
-            (c) -> Character.isAlphabetic(c) || chars.contains(c);
-    }
-    
-    private UnaryOperator<String> getOperator() {
-        return (ignoreCase) ? String::toLowerCase : null;
+        return CharClassPredicate.of(classes, chars);
     }
     
     private static void reportError(final Exception e) {
@@ -0,0 +1,344 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only word counts saved to a file in a compact binary format, which is memory-mapped when 
+ * loaded, so that looking up a word or finding the top words only touches the few pages needed 
+ * instead of deserializing the whole file. Returned by {@link WordCounts#load(Path)}, and written 
+ * by {@link WordCounts#save(Path)}.
+ * <p>
+ * The file starts with a header holding the number of words, their total count, and the offsets 
+ * of two indexes. Words are sorted lexicographically and stored as UTF-8 bytes in blocks of 
+ * {@value #BLOCK_SIZE} entries. Within a block, each word is front-coded as the length of the 
+ * prefix it shares with the previous word followed by the rest of its bytes, and each count is 
+ * stored as a varint. The block index holds the offset of each block, so that a word is looked up 
+ * by a binary search over the first words of the blocks followed by a scan within a single block. 
+ * The count index holds the count and the number of each word, sorted by count in descending 
+ * order and then by word, so that the top or bottom N words are read directly from its start or 
+ * end. As a single mapping is used, the file can't be larger than 2 GB.
+ *
+ * @author Stoyan Rachev
+ */
+public final class MappedWordCounts extends WordCounts {
+
+    static final int BLOCK_SIZE = 16;
+
+    private static final int MAGIC = 0x57435301;
+    private static final int HEADER_SIZE = 24;
+
+    private final ByteBuffer buf;
+    private final int size;
+    private final long total;
+    private final int blockIndex;
+    private final int countIndex;
+
+    private MappedWordCounts(ByteBuffer buf) throws IOException {
+        super(null);
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a word counts snapshot.");
+        }
+        size = buf.getInt(4);
+        total = buf.getLong(8);
+        blockIndex = buf.getInt(16);
+        countIndex = buf.getInt(20);
+    }
+
+    static MappedWordCounts map(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new IOException("Word counts snapshot is too large.");
+            }
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            return new MappedWordCounts(buf);
+        }
+    }
+
+    static void write(WordCounts wc, Path file) throws IOException {
+        String[] words = new String[wc.getSize()];
+        int[] i = new int[] { 0 };
+        wc.forEach((word, count) -> { words[i[0]++] = word; });
+        Arrays.parallelSort(words);
+        int[] counts = new int[words.length];
+        long total = 0;
+        for (int j = 0; j < words.length; j++) {
+            counts[j] = wc.get(words[j]);
+            total += counts[j];
+        }
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(fc)));
+            out.write(new byte[HEADER_SIZE]);
+            int[] blocks = writeBlocks(out, words, counts);
+            int blockIndex = out.size();
+            for (int block : blocks) {
+                out.writeInt(block);
+            }
+            int countIndex = out.size();
+            for (long entry : sortByCount(counts)) {
+                out.writeInt((int) -(entry >> 32));
+                out.writeInt((int) entry);
+            }
+            out.flush();
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Word counts are too large for a snapshot.");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(words.length).putLong(total).putInt(blockIndex)
+                .putInt(countIndex).flip();
+            fc.write(header, 0);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public long getTotal() {
+        return total;
+    }
+
+    @Override
+    public void add(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    public void set(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    void subtract(String word, int count) {
+        throw new UnsupportedOperationException("Word counts snapshot is read-only.");
+    }
+
+    @Override
+    public int get(String word) {
+        // Find the last block with a first word that is not greater than the word
+        int lo = 0, hi = getNumBlocks() - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (new Cursor(mid).next().compareTo(word) <= 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block >= 0) {
+            Cursor cursor = new Cursor(block);
+            int n = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+            for (int i = 0; i < n; i++) {
+                int c = cursor.next().compareTo(word);
+                if (c == 0) {
+                    return cursor.count;
+                } else if (c > 0) {
+                    break;
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Integer> block) {
+        forEachInRange(0, size, block);
+    }
+
+    @Override
+    public void forEachInRange(int lo, int hi, BiConsumer<String, Integer> block) {
+        if (lo >= hi) {
+            return;
+        }
+        Cursor cursor = new Cursor(lo / BLOCK_SIZE);
+        // Blocks are contiguous, so the cursor simply continues with the next block
+        for (int i = lo - lo % BLOCK_SIZE; i < hi; i++) {
+            String word = cursor.next();
+            if (i >= lo) {
+                block.accept(word, cursor.count);
+            }
+        }
+    }
+
+    /**
+     * Returns the top words in the order specified by the comparator, reading them directly 
+     * from the count index. The comparator is expected to order counts either descending or 
+     * ascending, and ties are resolved lexicographically as in {@link TopWordCounts}.
+     */
+    @Override
+    public TopWordCounts findTop(int number, Comparator<Integer> comparator) {
+        TopWordCounts result = new TopWordCounts(number, comparator);
+        if (size == 0) {
+            return result;
+        }
+        boolean desc = (comparator.compare(getRankCount(0), getRankCount(size - 1)) <= 0);
+        int i = desc ? 0 : size - 1;
+        while (result.getSize() < number && i >= 0 && i < size) {
+            // Words with equal counts are sorted lexicographically, so the first ones are taken
+            int count = getRankCount(i);
+            int lo = findRank((long) count + 1), hi = findRank(count);
+            for (int j = lo; j < hi && result.getSize() < number; j++) {
+                result.add(count, getWord(buf.getInt(countIndex + j * 8 + 4)));
+            }
+            i = desc ? hi : lo - 1;
+        }
+        return result;
+    }
+
+    @Override
+    boolean isIndexed() {
+        return true;
+    }
+
+    @Override
+    public WordCounts snapshot() {
+        return this;
+    }
+
+    private int getNumBlocks() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private int getRankCount(int rank) {
+        return buf.getInt(countIndex + rank * 8);
+    }
+
+    /**
+     * Returns the first rank with a count lower than the specified count.
+     */
+    private int findRank(long count) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getRankCount(mid) >= count) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private String getWord(int n) {
+        Cursor cursor = new Cursor(n / BLOCK_SIZE);
+        String word = null;
+        for (int i = 0; i <= n % BLOCK_SIZE; i++) {
+            word = cursor.next();
+        }
+        return word;
+    }
+
+    private static int[] writeBlocks(DataOutputStream out, String[] words, int[] counts) 
+        throws IOException {
+        int[] blocks = new int[(words.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        byte[] prev = new byte[0];
+        for (int i = 0; i < words.length; i++) {
+            byte[] bytes = words[i].getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blocks[i / BLOCK_SIZE] = out.size();
+            } else {
+                int max = Math.min(prev.length, bytes.length);
+                while (shared < max && prev[shared] == bytes[shared]) {
+                    shared++;
+                }
+            }
+            writeVarint(out, shared);
+            writeVarint(out, bytes.length - shared);
+            out.write(bytes, shared, bytes.length - shared);
+            writeVarint(out, counts[i]);
+            prev = bytes;
+        }
+        return blocks;
+    }
+
+    private static long[] sortByCount(int[] counts) {
+        // Negated counts in the high half and word numbers in the low half, sorted ascending
+        long[] entries = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            entries[i] = (-(long) counts[i] << 32) | i;
+        }
+        Arrays.parallelSort(entries);
+        return entries;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Decodes the entries of a block one by one, keeping the bytes of the previous word.
+     */
+    private final class Cursor {
+
+        private int pos;
+        private byte[] key = new byte[64];
+        private int count;
+
+        Cursor(int block) {
+            pos = buf.getInt(blockIndex + block * 4);
+        }
+
+        String next() {
+            int shared = readVarint();
+            int len = shared + readVarint();
+            if (len > key.length) {
+                key = Arrays.copyOf(key, Math.max(len, key.length << 1));
+            }
+            for (int i = shared; i < len; i++) {
+                key[i] = buf.get(pos++);
+            }
+            count = readVarint();
+            return new String(key, 0, len, StandardCharsets.UTF_8);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = buf.get(pos++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
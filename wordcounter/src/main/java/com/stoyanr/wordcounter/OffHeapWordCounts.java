@@ -0,0 +1,246 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+import com.stoyanr.util.NativeMemory;
+
+/**
+ * Word counts kept in native memory rather than on the heap, for vocabularies too large to be
+ * held as a map of strings. Words are stored as UTF-8 bytes appended to a key arena, and each word
+ * has an entry holding the position and length of its key and its count, with entries numbered
+ * in the order in which the words were added. An open-addressing hash table of hash codes and
+ * entry numbers, indexed by {@code long}, is used for looking up words. A word costs about 30
+ * bytes plus the length of its key, none of which is seen by the garbage collector.
+ * <p>
+ * Since entries are numbered, {@code forEachInRange} goes directly to the first entry in the
+ * range, which makes it well suited for the parallel analysis performed by
+ * {@link WordCountAnalyzer}. Adding words is synchronized, so that instances can be shared by
+ * several threads counting in parallel, while reading methods are not, and must not be called
+ * concurrently with adding words. Words are never removed, so {@code subtract} is not supported.
+ *
+ * @author Stoyan Rachev
+ */
+public class OffHeapWordCounts extends WordCounts {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int ENTRY_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final NativeMemory keys;
+    private final NativeMemory entries;
+    private NativeMemory slots;
+    private long keysSize = 0;
+    private long numSlots;
+    private int shift;
+    private int size = 0;
+    private byte[] key = new byte[64];
+
+    public OffHeapWordCounts() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OffHeapWordCounts(int capacity) {
+        super(null);
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity is negative.");
+        }
+        keys = new NativeMemory((long) capacity * 8);
+        entries = new NativeMemory((long) capacity * ENTRY_SIZE);
+        allocateSlots(Long.highestOneBit(Math.max(capacity, 2) - 1) << 2);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void add(String word, int count) {
+        int len = encode(word);
+        int hash = word.hashCode();
+        long i = find(key, len, hash);
+        int e = getEntry(i);
+        if (e >= 0) {
+            long pos = (long) e * ENTRY_SIZE + 12;
+            entries.putInt(pos, entries.getInt(pos) + count);
+        } else {
+            insert(i, len, hash, count);
+        }
+    }
+
+    @Override
+    void subtract(String word, int count) {
+        throw new UnsupportedOperationException("Off-heap word counts can't remove words.");
+    }
+
+    @Override
+    synchronized void add(WordTable table, UnaryOperator<String> op) {
+        super.add(table, op);
+    }
+
+    @Override
+    public synchronized void set(String word, int count) {
+        int len = encode(word);
+        int hash = word.hashCode();
+        long i = find(key, len, hash);
+        int e = getEntry(i);
+        if (e >= 0) {
+            entries.putInt((long) e * ENTRY_SIZE + 12, count);
+        } else {
+            insert(i, len, hash, count);
+        }
+    }
+
+    @Override
+    public int get(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int e = getEntry(find(bytes, bytes.length, word.hashCode()));
+        return (e >= 0) ? entries.getInt((long) e * ENTRY_SIZE + 12) : 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Integer> block) {
+        forEachInRange(0, size, block);
+    }
+
+    @Override
+    public void forEachInRange(int lo, int hi, BiConsumer<String, Integer> block) {
+        byte[] bytes = new byte[64];
+        for (int e = lo; e < hi; e++) {
+            long pos = (long) e * ENTRY_SIZE;
+            int len = entries.getInt(pos + 8);
+            if (len > bytes.length) {
+                bytes = new byte[Math.max(len, bytes.length << 1)];
+            }
+            keys.get(entries.getLong(pos), bytes, 0, len);
+            block.accept(new String(bytes, 0, len, StandardCharsets.UTF_8),
+                entries.getInt(pos + 12));
+        }
+    }
+
+    @Override
+    public WordCounts snapshot() {
+        return this;
+    }
+
+    private long find(byte[] bytes, int len, int hash) {
+        long i = index(hash);
+        int e;
+        while ((e = getEntry(i)) >= 0) {
+            if (slots.getInt(i * SLOT_SIZE) == hash && keyEquals(e, bytes, len)) {
+                break;
+            }
+            i = (i + 1) & (numSlots - 1);
+        }
+        return i;
+    }
+
+    private void insert(long i, int len, int hash, int count) {
+        if (size == Integer.MAX_VALUE - 1) {
+            throw new IllegalStateException("Too many words.");
+        }
+        // Keys don't cross segment boundaries, so that they can be read and written at once
+        if ((keysSize & (NativeMemory.SEGMENT_SIZE - 1)) + len > NativeMemory.SEGMENT_SIZE) {
+            keysSize = (keysSize + NativeMemory.SEGMENT_SIZE) & -NativeMemory.SEGMENT_SIZE;
+        }
+        keys.ensureCapacity(keysSize + len);
+        keys.put(keysSize, key, 0, len);
+        long pos = (long) size * ENTRY_SIZE;
+        entries.ensureCapacity(pos + ENTRY_SIZE);
+        entries.putLong(pos, keysSize);
+        entries.putInt(pos + 8, len);
+        entries.putInt(pos + 12, count);
+        keysSize += len;
+        setSlot(slots, i, hash, size);
+        if (++size > numSlots - (numSlots >>> 2)) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        NativeMemory slotsx = slots;
+        long numSlotsx = numSlots;
+        allocateSlots(numSlots << 1);
+        for (long j = 0; j < numSlotsx; j++) {
+            int e = slotsx.getInt(j * SLOT_SIZE + 4) - 1;
+            if (e >= 0) {
+                int hash = slotsx.getInt(j * SLOT_SIZE);
+                long i = index(hash);
+                while (getEntry(i) >= 0) {
+                    i = (i + 1) & (numSlots - 1);
+                }
+                setSlot(slots, i, hash, e);
+            }
+        }
+    }
+
+    private void allocateSlots(long n) {
+        slots = new NativeMemory(n * SLOT_SIZE);
+        numSlots = n;
+        shift = Long.numberOfLeadingZeros(n) + 1;
+    }
+
+    private long index(int hash) {
+        return (hash * HASH_MULTIPLIER) >>> shift;
+    }
+
+    private int getEntry(long i) {
+        return slots.getInt(i * SLOT_SIZE + 4) - 1;
+    }
+
+    private static void setSlot(NativeMemory slots, long i, int hash, int e) {
+        slots.putInt(i * SLOT_SIZE, hash);
+        slots.putInt(i * SLOT_SIZE + 4, e + 1);
+    }
+
+    private boolean keyEquals(int e, byte[] bytes, int len) {
+        long pos = (long) e * ENTRY_SIZE;
+        if (entries.getInt(pos + 8) != len) {
+            return false;
+        }
+        long kpos = entries.getLong(pos);
+        for (int j = 0; j < len; j++) {
+            if (keys.get(kpos + j) != bytes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int encode(String word) {
+        int n = word.length();
+        if (key.length < n * 3) {
+            key = new byte[Math.max(n * 3, key.length << 1)];
+        }
+        for (int i = 0; i < n; i++) {
+            char c = word.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(bytes, 0, key, 0, bytes.length);
+                return bytes.length;
+            }
+            key[i] = (byte) c;
+        }
+        return n;
+    }
+}
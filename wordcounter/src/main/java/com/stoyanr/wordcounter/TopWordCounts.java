@@ -18,78 +18,89 @@
 package com.stoyanr.wordcounter;
 
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import com.stoyanr.util.Logger;
 
 /**
- * A sorted list of word usage counts mapped to all words that have such counts. Provides methods 
- * for adding top word counts, checking for equality, and printing. Internally, this class 
- * encapsulates a {@code SortedMap<Integer, Set<String>>}. Some of the analysis methods 
- * of {@link WordCountAnalyzer} return instances of this class.
+ * A list of at most N words with the top word usage counts, in the order specified by a count 
+ * comparator. Words with equal counts are ordered lexicographically, so that the same words are 
+ * kept no matter in which order they are added. Provides methods for adding words, adding other 
+ * top word counts, checking for equality, and printing. Internally, this class encapsulates a 
+ * binary heap of counts and words kept in parallel arrays, with the entry that would be dropped 
+ * first at its root. Merging two instances selects the top N of their combined entries in linear 
+ * time, so that both the memory and the time needed are proportional to N, regardless of how 
+ * many words have equal counts. The words added are expected to be distinct. Some of the 
+ * analysis methods of {@link WordCountAnalyzer} return instances of this class.
  * 
  * @author Stoyan Rachev
  */
 public class TopWordCounts {
     
+    private static final int INITIAL_CAPACITY = 16;
+    
     private final int number;
-    private final SortedMap<Integer, Set<String>> m;
+    private final Comparator<Integer> comparator;
+    private int[] counts;
+    private String[] words;
+    private int size = 0;
     
     public TopWordCounts(int number, Comparator<Integer> comparator) {
         this.number = number;
-        m = new TreeMap<>(comparator);
+        this.comparator = comparator;
+        int capacity = Math.min(Math.max(number, 0), INITIAL_CAPACITY);
+        counts = new int[capacity];
+        words = new String[capacity];
     }
     
     public int getSize() {
-        return m.size();
+        return size;
     }
     
     public void addIfNeeded(int count, String word) {
-        if (m.size() < number || shouldInclude(count)) {
-            add(count, word);
+        if (size < number) {
+            ensureCapacity(size + 1);
+            counts[size] = count;
+            words[size] = word;
+            siftUp(size++);
+        } else if (size > 0 && compare(count, word, counts[0], words[0]) < 0) {
+            counts[0] = count;
+            words[0] = word;
+            siftDown(0);
         }
     }
 
     public void add(int count, String word) {
-        if (m.containsKey(count)) {
-            m.get(count).add(word);
-        } else {
-            putWords(count, asSet(word));
-        }
+        addIfNeeded(count, word);
     }
 
     public void add(int count, Set<String> words) {
-        if (m.containsKey(count)) {
-            m.get(count).addAll(words);
-        } else {
-            putWords(count, words);
+        for (String word : words) {
+            addIfNeeded(count, word);
         }
     }
 
     public void add(TopWordCounts twc) {
-        for (Map.Entry<Integer, Set<String>> e : twc.m.entrySet()) {
-            add(e.getKey(), e.getValue());
+        ensureCapacity(size + twc.size);
+        System.arraycopy(twc.counts, 0, counts, size, twc.size);
+        System.arraycopy(twc.words, 0, words, size, twc.size);
+        size += twc.size;
+        if (size > number) {
+            select(number);
+            Arrays.fill(words, number, size, null);
+            size = number;
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
         }
     }
     
     public void print(PrintStream ps) {
         Logger.debug("Printing %d words", number);
-        int i = 0;
-        for (Map.Entry<Integer, Set<String>> e : m.entrySet()) {
-            int count = e.getKey();
-            Set<String> words = e.getValue();
-            for (String word : words) {
-                ps.printf("%20s: %d\n", word, count);
-                if (++i == number) {
-                    return;
-                }
-            }
+        for (int i : sortedIndexes()) {
+            ps.printf("%20s: %d\n", words[i], counts[i]);
         }
     }
     
@@ -99,46 +110,115 @@ public class TopWordCounts {
             return false;
         }
         TopWordCounts twc = (TopWordCounts) o;
-        if (m.size() != twc.m.size()) {
+        if (size != twc.size) {
             return false;
         }
-        for (Map.Entry<Integer, Set<String>> e : twc.m.entrySet()) {
-            Set<String> set = m.get(e.getKey());
-            if (set == null) {
+        Integer[] indexes = sortedIndexes(), indexesx = twc.sortedIndexes();
+        for (int i = 0; i < size; i++) {
+            int j = indexes[i], jx = indexesx[i];
+            if (counts[j] != twc.counts[jx] || !words[j].equals(twc.words[jx])) {
                 return false;
             }
-            Set<String> setx = e.getValue();
-            if (set.size() != setx.size()) {
-                return false;
-            }
-            for (String s : setx) {
-                if (!set.contains(s)) {
-                    return false;
-                }
-            }
         }
         return true;
     }
 
     @Override
     public int hashCode() {
-        return 89 * this.number + Objects.hashCode(this.m);
+        int result = 0;
+        for (int i = 0; i < size; i++) {
+            result += words[i].hashCode() ^ counts[i];
+        }
+        return result;
     }
     
-    private boolean shouldInclude(int count) {
-        return m.comparator().compare(count, m.lastKey()) <= 0;
+    private Integer[] sortedIndexes() {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, (i, j) -> compare(i, j));
+        return indexes;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > counts.length) {
+            int capacityx = Math.max(capacity, counts.length << 1);
+            counts = Arrays.copyOf(counts, capacityx);
+            words = Arrays.copyOf(words, capacityx);
+        }
     }
     
-    private void putWords(int count, Set<String> words) {
-        m.put(count, words);
-        if (m.size() > number) {
-            m.remove(m.lastKey());
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compare(i, parent) <= 0) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+    
+    private void siftDown(int i) {
+        while (true) {
+            int child = (i << 1) + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && compare(child + 1, child) > 0) {
+                child++;
+            }
+            if (compare(child, i) <= 0) {
+                break;
+            }
+            swap(i, child);
+            i = child;
         }
     }
 
-    private static Set<String> asSet(String word) {
-        Set<String> set = new HashSet<>();
-        set.add(word);
-        return set;
+    private void select(int k) {
+        // Quickselect, moves the k entries that should be kept to the beginning of the arrays
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            int p = partition(lo, hi, (lo + hi) >>> 1);
+            if (p == k) {
+                break;
+            } else if (k < p) {
+                hi = p - 1;
+            } else {
+                lo = p + 1;
+            }
+        }
+    }
+    
+    private int partition(int lo, int hi, int pivot) {
+        swap(pivot, hi);
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            if (compare(i, hi) < 0) {
+                swap(i, store++);
+            }
+        }
+        swap(store, hi);
+        return store;
+    }
+    
+    private int compare(int i, int j) {
+        return compare(counts[i], words[i], counts[j], words[j]);
+    }
+    
+    private int compare(int count1, String word1, int count2, String word2) {
+        int result = comparator.compare(count1, count2);
+        return (result != 0) ? result : word1.compareTo(word2);
+    }
+    
+    private void swap(int i, int j) {
+        int count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+        String word = words[i];
+        words[i] = words[j];
+        words[j] = word;
     }
 }
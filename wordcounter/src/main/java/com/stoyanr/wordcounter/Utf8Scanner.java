@@ -0,0 +1,316 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.stoyanr.util.CharPredicate;
+
+/**
+ * A scanner that counts the words in UTF-8 encoded bytes without decoding them to a string first.
+ * ASCII bytes are tested against the predicate directly, while multi-byte sequences are decoded
+ * to one or two chars, the same way as they appear in the decoded string. Malformed or truncated
+ * sequences are treated as a single replacement char per byte. The chars of the current word are
+ * collected in a reusable buffer together with their hash code, and added to a {@link WordTable},
+ * which creates a string only for words it hasn't seen before. If {@code foldCase} is set, the 
+ * chars are case folded as they are collected, see {@link CaseFolder}.
+ * <p>
+ * With {@link #scanSwar(ByteBuffer)}, the bytes are processed 8 at a time as a {@code long} 
+ * (SWAR, SIMD within a register) as long as they are all ASCII. The ASCII word chars are 
+ * precomputed from the predicate as up to {@code MAX_RANGES} ranges, and all 8 bytes are 
+ * classified against them at once with carry-free additions and subtractions, setting the high 
+ * bit of each byte that is a word char. Runs of word chars and delimiters are then found with 
+ * {@code Long.numberOfLeadingZeros}, so that delimiters are skipped without testing each of them, 
+ * and word chars are collected without calling the predicate. If the ASCII word chars form more 
+ * ranges, the bytes are classified by looking them up in a table. Blocks containing any 
+ * non-ASCII byte are scanned one char at a time, as by {@link #scan(ByteBuffer)}, so both 
+ * methods count exactly the same words.
+ *
+ * @author Stoyan Rachev
+ */
+final class Utf8Scanner {
+
+    private static final char REPLACEMENT = '\uFFFD';
+    private static final int[] MIN_CODE_POINTS = { 0, 0, 0x80, 0x800, 0x10000 };
+    private static final int MAX_RANGES = 4;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final CharPredicate pred;
+    private final boolean foldCase;
+    private final WordTable table;
+    private char[] word = new char[64];
+    private int len = 0;
+    private int hash = 0;
+    private boolean surrogates = false;
+    private boolean[] ascii = null;
+    private long[] rangeLows = null;
+    private long[] rangeHighs = null;
+
+    Utf8Scanner(CharPredicate pred, WordTable table) {
+        this(pred, false, table);
+    }
+
+    Utf8Scanner(CharPredicate pred, boolean foldCase, WordTable table) {
+        this.pred = pred;
+        this.foldCase = foldCase;
+        this.table = table;
+    }
+
+    void scan(ByteBuffer bytes) {
+        int i = bytes.position(), n = bytes.limit();
+        while (i < n) {
+            i = scanChar(bytes, i, n);
+        }
+        flush();
+    }
+
+    void scanSwar(ByteBuffer bytes) {
+        if (ascii == null) {
+            compileAscii();
+        }
+        boolean little = (bytes.order() == ByteOrder.LITTLE_ENDIAN);
+        int i = bytes.position(), n = bytes.limit();
+        while (i + 8 <= n) {
+            long w = bytes.getLong(i);
+            if (little) {
+                w = Long.reverseBytes(w);
+            }
+            if ((w & HIGHS) == 0) {
+                scanBlock(w);
+                i += 8;
+            } else {
+                // A multi-byte sequence may continue after the block, so scanning resumes after it
+                int end = i + 8;
+                while (i < end) {
+                    i = scanChar(bytes, i, n);
+                }
+            }
+        }
+        while (i < n) {
+            i = scanChar(bytes, i, n);
+        }
+        flush();
+    }
+
+    private int scanChar(ByteBuffer bytes, int i, int n) {
+        byte b = bytes.get(i);
+        if (b >= 0) {
+            accept((char) b);
+            return i + 1;
+        }
+        int cp = decode(bytes, i, n);
+        if (cp < 0) {
+            accept(REPLACEMENT);
+            return i + 1;
+        } else if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            accept((char) cp);
+        } else {
+            accept(Character.highSurrogate(cp));
+            accept(Character.lowSurrogate(cp));
+        }
+        return i + getSequenceLength(b);
+    }
+
+    private void scanBlock(long w) {
+        // The first byte is in the highest lane, and the high bit of each lane is set for word chars
+        long words = classify(w);
+        long delims = ~words & HIGHS;
+        int k = 0;
+        while (k < 8) {
+            if ((words << (k << 3)) < 0) {
+                long rest = delims << (k << 3);
+                int end = (rest == 0) ? 8 : k + (Long.numberOfLeadingZeros(rest) >>> 3);
+                if (len + (end - k) > word.length) {
+                    word = Arrays.copyOf(word, Math.max(len << 1, len + 8));
+                }
+                for (; k < end; k++) {
+                    char c = (char) ((w >>> (56 - (k << 3))) & 0x7F);
+                    if (foldCase) {
+                        c = CaseFolder.fold(c);
+                    }
+                    word[len++] = c;
+                    hash = 31 * hash + c;
+                }
+            } else {
+                flush();
+                long rest = words << (k << 3);
+                k = (rest == 0) ? 8 : k + (Long.numberOfLeadingZeros(rest) >>> 3);
+            }
+        }
+    }
+
+    private long classify(long w) {
+        long result = 0;
+        if (rangeLows != null) {
+            // For bytes below 0x80, these neither carry nor borrow across lanes
+            for (int r = 0; r < rangeLows.length; r++) {
+                result |= (w + rangeLows[r]) & (rangeHighs[r] - w);
+            }
+        } else {
+            for (int k = 0; k < 8; k++) {
+                if (ascii[(int) (w >>> (56 - (k << 3))) & 0x7F]) {
+                    result |= 0x80L << (56 - (k << 3));
+                }
+            }
+        }
+        return result & HIGHS;
+    }
+
+    private void compileAscii() {
+        ascii = new boolean[0x80];
+        int numRanges = 0;
+        for (int c = 0; c < 0x80; c++) {
+            ascii[c] = pred.test((char) c);
+            if (ascii[c] && (c == 0 || !ascii[c - 1])) {
+                numRanges++;
+            }
+        }
+        if (numRanges > MAX_RANGES) {
+            return;
+        }
+        rangeLows = new long[numRanges];
+        rangeHighs = new long[numRanges];
+        int r = 0;
+        for (int c = 0; c < 0x80; c++) {
+            if (ascii[c] && (c == 0 || !ascii[c - 1])) {
+                int hi = c;
+                while (hi + 1 < 0x80 && ascii[hi + 1]) {
+                    hi++;
+                }
+                // The high bit of a lane is set if the byte is at least c, and at most hi
+                rangeLows[r] = (0x80 - c) * ONES;
+                rangeHighs[r++] = (0x80 + hi) * ONES;
+            }
+        }
+    }
+
+    private void accept(char c) {
+        if (pred.test(c)) {
+            if (len == word.length) {
+                word = Arrays.copyOf(word, len << 1);
+            }
+            if (foldCase) {
+                c = CaseFolder.fold(c);
+                surrogates |= Character.isSurrogate(c);
+            }
+            word[len++] = c;
+            hash = 31 * hash + c;
+        } else {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (len > 0) {
+            table.add(word, 0, len, surrogates ? CaseFolder.fold(word, len) : hash, 1);
+            len = 0;
+            hash = 0;
+            surrogates = false;
+        }
+    }
+
+    static int getBeginWordIndex(ByteBuffer bytes, CharPredicate pred) {
+        int i = bytes.position(), n = bytes.limit();
+        while (i < n && isContinuation(bytes.get(i))) {
+            i++;
+        }
+        while (i < n) {
+            int cp = decode(bytes, i, n);
+            if (!isWordCodePoint(cp, pred)) {
+                break;
+            }
+            i += (cp < 0) ? 1 : getSequenceLength(bytes.get(i));
+        }
+        return i;
+    }
+
+    static int getEndWordIndex(ByteBuffer bytes, CharPredicate pred) {
+        int bi = bytes.position(), ei = bytes.limit();
+        while (ei > bi) {
+            int j = ei - 1;
+            while (j > bi && ei - j < 4 && isContinuation(bytes.get(j))) {
+                j--;
+            }
+            int cp = decode(bytes, j, ei);
+            if (cp < 0 && ei == bytes.limit() && getSequenceLength(bytes.get(j)) > ei - j) {
+                // An incomplete sequence at the end, which continues in the next buffer
+                ei = j;
+                continue;
+            }
+            if (cp < 0 || j + getSequenceLength(bytes.get(j)) != ei || !isWordCodePoint(cp, pred)) {
+                break;
+            }
+            ei = j;
+        }
+        return ei;
+    }
+
+    private static boolean isWordCodePoint(int cp, CharPredicate pred) {
+        if (cp < 0) {
+            return pred.test(REPLACEMENT);
+        } else if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return pred.test((char) cp);
+        } else {
+            return pred.test(Character.highSurrogate(cp)) && pred.test(Character.lowSurrogate(cp));
+        }
+    }
+
+    private static int decode(ByteBuffer bytes, int i, int n) {
+        int b = bytes.get(i);
+        int k = getSequenceLength(b);
+        if (k == 1) {
+            return b;
+        } else if (k == 0 || i + k > n) {
+            return -1;
+        }
+        int cp = b & (0xFF >>> (k + 1));
+        for (int j = 1; j < k; j++) {
+            int c = bytes.get(i + j);
+            if (!isContinuation(c)) {
+                return -1;
+            }
+            cp = (cp << 6) | (c & 0x3F);
+        }
+        if (cp < MIN_CODE_POINTS[k] || cp > Character.MAX_CODE_POINT ||
+            (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+            return -1;
+        }
+        return cp;
+    }
+
+    private static int getSequenceLength(int b) {
+        if (b >= 0) {
+            return 1;
+        } else if ((b & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((b & 0xF0) == 0xE0) {
+            return 3;
+        } else if ((b & 0xF8) == 0xF0) {
+            return 4;
+        } else {
+            return 0;
+        }
+    }
+
+    private static boolean isContinuation(int b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
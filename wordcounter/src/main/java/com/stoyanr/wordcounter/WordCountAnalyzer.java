@@ -33,6 +33,12 @@ import com.stoyanr.util.ForkJoinComputer;
  * // Find the top 10 most used words in wc
  * new WordCountAnalyzer(wc, true).findTop(10, (x, y) -> (y - x));
  * </pre>
+ * <p>
+ * Parallel analysis works on a {@link WordCounts#snapshot() snapshot} of the word counts, so that 
+ * each fork / join task accesses its range directly. Serial analysis is delegated to 
+ * {@link WordCounts#findTop(int, Comparator)} and {@link WordCounts#getTotal()}, and so is 
+ * parallel analysis of word counts which answer them without iterating over all words, such as 
+ * {@link MappedWordCounts}, which reads its top words and total from the file directly.
  * 
  * @author Stoyan Rachev
  */
@@ -58,23 +64,26 @@ public class WordCountAnalyzer {
     }
 
     public TopWordCounts findTop(int number, Comparator<Integer> comparator) {
-        return analyse(new FindTopAnalysis(number, comparator));
+        FindTopAnalysis a = new FindTopAnalysis(number, comparator);
+        return isParallel() ? analyse(a) : wc.findTop(a.number, comparator);
+    }
+    
+    public long getTotal() {
+        return isParallel() ? analyse(new TotalAnalysis()) : wc.getTotal();
     }
     
-    public int getTotal() {
-        return analyse(new TotalAnalysis());
+    private boolean isParallel() {
+        return par && !wc.isIndexed();
     }
     
     private <T> T analyse(Analysis<T> a) {
-        if (par) {
-            return new ForkJoinComputer<T>(wc.getSize(), THRESHOLD, a::compute, a::merge, parLevel).compute();
-        } else {
-            return a.compute(0, wc.getSize());
-        }
+        WordCounts wcx = wc.snapshot();
+        return new ForkJoinComputer<T>(wcx.getSize(), THRESHOLD, 
+            (lo, hi) -> a.compute(wcx, lo, hi), a::merge, parLevel).compute();
     }
     
     interface Analysis<T> {
-        T compute(int lo, int hi);
+        T compute(WordCounts wc, int lo, int hi);
         
         T merge(T r1, T r2);
     }
@@ -96,7 +105,7 @@ public class WordCountAnalyzer {
         }
 
         @Override
-        public TopWordCounts compute(int lo, int hi) {
+        public TopWordCounts compute(WordCounts wc, int lo, int hi) {
             TopWordCounts result = new TopWordCounts(number, comparator);
             wc.forEachInRange(lo, hi, (word, count) -> result.addIfNeeded(count, word));
             return result;
@@ -109,17 +118,17 @@ public class WordCountAnalyzer {
         }
     }
     
-    final class TotalAnalysis implements Analysis<Integer> {
+    final class TotalAnalysis implements Analysis<Long> {
 
         @Override
-        public Integer compute(int lo, int hi) {
-            int[] result = new int[] { 0 };
+        public Long compute(WordCounts wc, int lo, int hi) {
+            long[] result = new long[] { 0 };
             wc.forEachInRange(lo, hi, (word, count) -> { result[0] += count; });
             return result[0];
         }
         
         @Override
-        public Integer merge(Integer r1, Integer r2) {
+        public Long merge(Long r1, Long r2) {
             return r1 + r2;
         }
     }
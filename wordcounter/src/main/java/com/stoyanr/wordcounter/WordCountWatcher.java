@@ -0,0 +1,306 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+
+import com.stoyanr.util.Logger;
+
+/**
+ * Word counts of a file or a directory tree that are kept current while the files change. When 
+ * started, the watcher counts all files and registers all directories with a 
+ * {@code WatchService}. A background thread then takes the events for files that are created, 
+ * modified or deleted, counts each changed file again, and applies the difference to the live 
+ * word counts by subtracting the previous contribution of the file and adding the new one, so 
+ * that the rest of the tree is never read again. Directories created later are counted and 
+ * registered in the same way, and if the watch service reports that events were lost, the whole 
+ * tree is scanned again. When counting in parallel, all files are counted in a single pool owned 
+ * by the watcher, which is shut down when the watcher is closed.
+ * <p>
+ * The contribution of each file is kept in memory as a {@link CountCache.Entry} with the raw 
+ * words, before applying the unary operator. The live word counts can be read at any time with 
+ * {@link #snapshot()}, which returns a read-only copy reflecting all changes applied so far, or 
+ * analyzed in place with {@link #findTop(int, Comparator)} and {@link #getTotal()}. A file that 
+ * can't be counted is logged and skipped, so that the watcher keeps running. Instances are 
+ * created by {@link WordCounter#watch()}.
+ *
+ * @author Stoyan Rachev
+ */
+public class WordCountWatcher implements Closeable {
+
+    private final WordCounter counter;
+    private final Path path;
+    private final UnaryOperator<String> op;
+    private final Map<Path, CountCache.Entry> files = new HashMap<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<Path> dirs = new HashSet<>();
+    private final WordCounts wc = new WordCounts();
+    private WatchService ws;
+    private ForkJoinPool pool;
+    private Thread thread;
+
+    WordCountWatcher(WordCounter counter, Path path, UnaryOperator<String> op) {
+        this.counter = counter;
+        this.path = path.toAbsolutePath();
+        this.op = op;
+    }
+
+    void start() {
+        try {
+            ws = path.getFileSystem().newWatchService();
+            pool = counter.createPool();
+            if (!Files.isDirectory(path)) {
+                // Only directories can be watched, so the events for other files are ignored
+                register(path.getParent());
+            }
+            rescan();
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't watch %s: %s", path.toString(), 
+                e.getMessage()), e);
+        }
+        thread = new Thread(this::run, "word-count-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns a read-only copy of the live word counts, reflecting all changes applied so far. The 
+     * words and counts are copied to arrays, see {@link WordCounts#snapshot()}.
+     */
+    public WordCounts snapshot() {
+        synchronized (wc) {
+            return wc.snapshot();
+        }
+    }
+
+    /**
+     * Returns the top words of the live word counts in the order specified by the comparator, 
+     * without copying them. Changes are not applied meanwhile.
+     */
+    public TopWordCounts findTop(int number, Comparator<Integer> comparator) {
+        synchronized (wc) {
+            return wc.findTop(number, comparator);
+        }
+    }
+
+    /**
+     * Returns the total of the live word counts, without copying them. Changes are not applied 
+     * meanwhile.
+     */
+    public long getTotal() {
+        synchronized (wc) {
+            return wc.getTotal();
+        }
+    }
+
+    /**
+     * Stops watching for changes and waits for the background thread to finish.
+     */
+    @Override
+    public void close() {
+        try {
+            ws.close();
+            thread.join();
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't stop watching %s: %s", 
+                path.toString(), e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Path dir = keys.get(key);
+                // Several events for the same file, e.g. while it is being written, are coalesced
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                    } else if (dir != null) {
+                        changed.add(dir.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+                if (overflow) {
+                    Logger.warning("Events lost while watching %s, scanning it again", 
+                        path.toString());
+                    applyChanges(path, true);
+                } else {
+                    for (Path child : changed) {
+                        applyChanges(child, false);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void applyChanges(Path child, boolean rescan) {
+        try {
+            if (rescan) {
+                rescan();
+            } else {
+                update(child);
+            }
+        } catch (ClosedWatchServiceException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // Failures are only logged, as they would otherwise stop the background thread
+            Logger.error("Can't apply changes in %s: %s", child.toString(), e.toString());
+        }
+    }
+
+    private void rescan() throws IOException {
+        if (Files.isDirectory(path)) {
+            scan(path);
+        } else {
+            update(path);
+        }
+    }
+
+    private void update(Path child) throws IOException {
+        if (!child.startsWith(path)) {
+            return;
+        }
+        if (Files.isDirectory(child)) {
+            // Events for directories that are already registered report changes to their children
+            if (!dirs.contains(child)) {
+                scan(child);
+            }
+            return;
+        }
+        CountCache.Entry entry = null;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+            if (attrs.isRegularFile()) {
+                entry = counter.countFiles(Collections.singletonList(child), 
+                    Collections.singletonList(attrs), pool)[0];
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted
+        }
+        if (entry != null) {
+            apply(child, entry);
+        } else {
+            remove(child);
+        }
+    }
+
+    private void scan(Path dir) throws IOException {
+        final List<Path> found = new ArrayList<>();
+        final List<BasicFileAttributes> attrss = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) 
+                throws IOException {
+                register(subdir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    found.add(file);
+                    attrss.add(attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Files that are no longer found, in case their deletion was not reported
+        Set<Path> seen = new HashSet<>(found);
+        for (Path file : new ArrayList<>(files.keySet())) {
+            if (file.startsWith(dir) && !seen.contains(file)) {
+                apply(file, null);
+            }
+        }
+        CountCache.Entry[] entries = counter.countFiles(found, attrss, pool);
+        for (int i = 0; i < entries.length; i++) {
+            apply(found.get(i), entries[i]);
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        if (dirs.add(dir)) {
+            keys.put(dir.register(ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        }
+    }
+
+    private void remove(Path child) {
+        // The path may have been a directory, in which case all files under it are removed
+        for (Path file : new ArrayList<>(files.keySet())) {
+            if (file.startsWith(child)) {
+                apply(file, null);
+            }
+        }
+        dirs.removeIf((dir) -> dir.startsWith(child));
+    }
+
+    private void apply(Path file, CountCache.Entry entry) {
+        CountCache.Entry previous = (entry != null) ? files.put(file, entry) : files.remove(file);
+        synchronized (wc) {
+            if (previous != null) {
+                previous.forEach((word, count) -> wc.subtract(applyOp(word), count));
+            }
+            if (entry != null) {
+                entry.forEach((word, count) -> wc.add(applyOp(word), count));
+            }
+        }
+    }
+
+    private String applyOp(String word) {
+        return (op != null) ? op.apply(word) : word;
+    }
+}
@@ -17,28 +17,55 @@
  */
 package com.stoyanr.wordcounter;
 
-import static com.stoyanr.wordcounter.WordUtils.countWords;
+import static com.stoyanr.wordcounter.WordUtils.countWordsToTable;
+import static com.stoyanr.wordcounter.WordUtils.getBeginWordIndex;
 import static com.stoyanr.wordcounter.WordUtils.getEndWordIndex;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
+import com.stoyanr.util.CharClassPredicate;
 import com.stoyanr.util.CharPredicate;
 import com.stoyanr.util.FileUtils;
+import com.stoyanr.util.FileUtils.BytesProcessor;
+import com.stoyanr.util.ForkJoinComputer;
+import com.stoyanr.util.ForkJoinComputer.Computer;
+import com.stoyanr.util.Logger;
+import com.stoyanr.util.PipelineMetrics;
 import com.stoyanr.util.ProducerConsumerExecutor;
+import com.stoyanr.util.RingBufferQueue;
+import com.stoyanr.util.StreamDecoder;
+import com.stoyanr.util.Tracer;
 
 /**
  * A word counter facility that provides a method for counting words in a {@code Path} representing 
  * a file or a directory tree, either serially or in parallel. It is initialized with a path, 
  * a predicate to determine whether a character is a word character, an optional unary operator 
  * to be performed on words, a flag indicating whether to use parallel processing, and (optionally) 
- * a parallelism level. 
+ * a parallelism level. The predicate is compiled into a {@link CharClassPredicate}, so it is 
+ * tested once for each char upon construction, and must depend only on its argument.
  * <p>
  * To use this class, simply instantiate it with the appropriate lambdas and then call its 
  * {@code count} method:
@@ -47,16 +74,113 @@ import com.stoyanr.util.ProducerConsumerExecutor;
  * // Count all words consisting of only alphabetic chars, ignoring case, using parallel processing
  * new WordCounter(path, (c) -> Character.isAlphabetic(c), (s) -> s.toLowerCase(), true).count();
  * </pre>
+ * <p>
+ * By default, files are decoded using the default charset, which can be changed, with a streaming 
+ * decoder that reuses its buffers and passes the decoded chars to the tokenizer without creating 
+ * strings, see {@link StreamDecoder}. For UTF-8 encoded files, 
+ * setting the tokenizer to {@link Tokenizer#BYTES} counts the words directly in the bytes read, 
+ * skipping the decoding and creating strings only for words that are new in each piece of text.
+ * Instead of using an operator such as {@code String::toLowerCase}, which is applied to each 
+ * distinct word of each piece of text, words can be counted regardless of case by folding their 
+ * chars while scanning, see {@link #setFoldCase(boolean)}.
+ * Files with a size above the map threshold, if set, are memory-mapped rather than read into 
+ * heap buffers, so that the tokenizer is fed directly from the page cache. Files with a size above 
+ * the split threshold, if set, are split into several ranges that are read and counted in parallel.
+ * When counting in parallel with {@link Merging#LOCAL}, each consumer thread counts into its own 
+ * table, and the tables are merged only once at the end. Very large vocabularies can be counted 
+ * into {@link OffHeapWordCounts} to keep them out of the heap. Words can also be counted 
+ * approximately in a fixed amount of memory with {@link #countApprox(int)}. If a cache file is 
+ * set, only the files that changed since the previous run are read, see {@link CountCache}. 
+ * Small files can be grouped into batches that are read and counted as a single work unit. 
+ * Finally, {@link #watch()} keeps the word counts current while the files change.
  * 
  * @author Stoyan Rachev
  */
 public class WordCounter {
 
+    private static final int SPLIT_WINDOW = 64 * 1024;
+    private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The way words are extracted from files. {@code CHARS} decodes the files with the charset 
+     * of the counter and counts the words in the resulting chars, while {@code BYTES} counts 
+     * the words directly in the UTF-8 encoded bytes.
+     */
+    public enum Tokenizer {
+        CHARS, BYTES
+    }
+
+    /**
+     * The way the words counted by different threads are combined when counting in parallel. 
+     * {@code SHARED} adds the words of each piece of text to a single concurrent map as soon as 
+     * they are counted, while {@code LOCAL} counts all pieces of text taken by a consumer thread 
+     * into a table owned by that thread, and merges the tables in parallel after all files have 
+     * been read, avoiding any contention on shared state while counting.
+     */
+    public enum Merging {
+        SHARED, LOCAL
+    }
+
+    /**
+     * The way the directory tree is traversed when counting in parallel. {@code SERIAL} walks 
+     * the tree in the producer thread, while {@code PARALLEL} lists the directories in parallel 
+     * with fork / join tasks, which is faster for trees with a very large number of files.
+     */
+    public enum Traversal {
+        SERIAL, PARALLEL
+    }
+
+    /**
+     * The order in which the files found by the traversal are handed over to the mediators when 
+     * counting in parallel. {@code WALK} hands over each file as soon as it is found, while the 
+     * other schedules first traverse the whole tree and then hand over the files ordered by 
+     * {@link FileScheduler}. {@code LARGEST_FIRST} starts with the largest files, so that a large 
+     * file found late doesn't leave a long tail in which a single thread is busy. 
+     * {@code FILE_KEY} orders the files by inode number, which roughly follows their physical 
+     * order on disk and reduces seeking when the files are not cached. {@code ROUND_ROBIN} takes 
+     * one file from each directory in turn, spreading the work over directories that may be on 
+     * different devices.
+     */
+    public enum Schedule {
+        WALK, LARGEST_FIRST, FILE_KEY, ROUND_ROBIN
+    }
+
+    /**
+     * The queues through which file ranges and pieces of text are handed over between threads 
+     * when counting in parallel. {@code LINKED} uses {@code LinkedBlockingQueue}, while 
+     * {@code RING_BUFFER} uses {@link RingBufferQueue}, which hands over items without taking 
+     * a lock or allocating.
+     */
+    public enum StageQueue {
+        LINKED, RING_BUFFER
+    }
+
     private final Path path;
     private final CharPredicate pred;
     private final UnaryOperator<String> op;
     private final boolean par;
     private final int parLevel;
+    private Tokenizer tokenizer = Tokenizer.CHARS;
+    private Charset charset = Charset.defaultCharset();
+    private boolean foldCase = false;
+    private boolean swar = false;
+    private long mapThreshold = -1;
+    private long splitThreshold = -1;
+    private Merging merging = Merging.SHARED;
+    private boolean offHeap = false;
+    private Path cache = null;
+    private Traversal traversal = Traversal.SERIAL;
+    private Schedule schedule = Schedule.WALK;
+    private StageQueue queue = StageQueue.LINKED;
+    private int rangesCapacity = 0;
+    private int chunksCapacity = 0;
+    private int batchFiles = 0;
+    private int batchSize = 0;
+    private PipelineMetrics metrics = null;
+    private final ThreadLocal<WordTable> tables = ThreadLocal.withInitial(WordTable::new);
+    private ThreadLocal<StreamDecoder> decoders = createDecoders(charset);
+    private final ThreadLocal<ByteBuffer> buffers = 
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BATCH_BUFFER_SIZE));
     
     public WordCounter(Path path, CharPredicate pred, UnaryOperator<String> op, boolean par) {
         this(path, pred, op, par, ProducerConsumerExecutor.DEFAULT_PAR_LEVEL);
@@ -71,57 +195,534 @@ public class WordCounter {
             throw new IllegalArgumentException("Predicate is null.");
         }
         this.path = path;
-        this.pred = pred;
+        this.pred = CharClassPredicate.of(pred);
         this.op = op;
         this.par = par;
         this.parLevel = parLevel;
     }
 
+    public WordCounter setTokenizer(Tokenizer tokenizer) {
+        if (tokenizer == null) {
+            throw new IllegalArgumentException("Tokenizer is null.");
+        }
+        this.tokenizer = tokenizer;
+        return this;
+    }
+
+    /**
+     * Sets the charset with which files are decoded if the tokenizer is {@link Tokenizer#CHARS}. 
+     * The default is the default charset.
+     */
+    public WordCounter setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("Charset is null.");
+        }
+        this.charset = charset;
+        this.decoders = createDecoders(charset);
+        return this;
+    }
+
+    /**
+     * Sets whether words are counted regardless of case by case folding their chars while they 
+     * are scanned, see {@link CaseFolder}. This is done by both tokenizers, and doesn't create 
+     * any strings besides the folded words. The operator, if any, is applied to the folded words. 
+     * The default is {@code false}.
+     */
+    public WordCounter setFoldCase(boolean foldCase) {
+        this.foldCase = foldCase;
+        return this;
+    }
+
+    /**
+     * Sets whether the {@link Tokenizer#BYTES} tokenizer processes 8 bytes at a time while they 
+     * are ASCII, finding word boundaries with bit operations on a {@code long} rather than 
+     * testing each char with the predicate. This counts the same words, and is faster for mostly 
+     * ASCII text. The default is {@code false}.
+     */
+    public WordCounter setSwar(boolean swar) {
+        this.swar = swar;
+        return this;
+    }
+
+    /**
+     * Sets the minimum size of files that are memory-mapped instead of being read asynchronously. 
+     * A negative value, which is the default, means that files are never memory-mapped.
+     */
+    public WordCounter setMapThreshold(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the minimum size of files that are split into several ranges ending at word 
+     * boundaries, which are then read and counted in parallel. A negative value, which is 
+     * the default, means that files are never split. Files are only split when counting in 
+     * parallel, and only if they are known to be UTF-8 encoded, that is if the tokenizer is 
+     * {@link Tokenizer#BYTES} or the charset is UTF-8.
+     */
+    public WordCounter setSplitThreshold(long splitThreshold) {
+        this.splitThreshold = splitThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the way the words counted by different threads are combined. This only applies when 
+     * counting in parallel.
+     */
+    public WordCounter setMerging(Merging merging) {
+        if (merging == null) {
+            throw new IllegalArgumentException("Merging is null.");
+        }
+        this.merging = merging;
+        return this;
+    }
+
+    /**
+     * Sets whether the words are counted into {@link OffHeapWordCounts} instead of a map on the 
+     * heap. The default is {@code false}.
+     */
+    public WordCounter setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    /**
+     * Sets the file in which the word counts of all files are cached between runs, so that only 
+     * files with a different size or last modified time are read again, see {@link CountCache}. 
+     * The traversal, the schedule and the metrics apply to the changed files, which are counted 
+     * with fork / join tasks when counting in parallel, each file in its own table, so they are 
+     * neither split nor batched. A cache saved with a different predicate, tokenizer, charset or 
+     * case folding is thrown away. The default is {@code null}, meaning no caching. The cache is 
+     * not used by {@link #countApprox(int)}.
+     */
+    public WordCounter setCache(Path cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Sets the way the directory tree is traversed. This only applies when counting in parallel.
+     */
+    public WordCounter setTraversal(Traversal traversal) {
+        if (traversal == null) {
+            throw new IllegalArgumentException("Traversal is null.");
+        }
+        this.traversal = traversal;
+        return this;
+    }
+
+    /**
+     * Sets the order in which files are handed over to the mediators. This only applies when 
+     * counting in parallel.
+     */
+    public WordCounter setSchedule(Schedule schedule) {
+        if (schedule == null) {
+            throw new IllegalArgumentException("Schedule is null.");
+        }
+        this.schedule = schedule;
+        return this;
+    }
+
+    /**
+     * Sets the queues between the stages of the pipeline. {@code LINKED} is the safe choice when 
+     * the stages block often, while {@code RING_BUFFER} avoids the lock and the allocation per 
+     * item when the queues are busy. The default is {@code LINKED}. This only applies when 
+     * counting in parallel.
+     */
+    public WordCounter setQueue(StageQueue queue) {
+        if (queue == null) {
+            throw new IllegalArgumentException("Queue is null.");
+        }
+        this.queue = queue;
+        return this;
+    }
+
+    /**
+     * Sets the capacities of the queue of file ranges waiting to be read and of the queue of 
+     * pieces of text waiting to be counted. Each thread claims up to its share of the capacity at 
+     * once, so larger capacities reduce the hand-over cost when there are many small files, at 
+     * the expense of memory for the pieces of text. The default is 0, meaning the parallelism 
+     * level.
+     */
+    public WordCounter setQueueCapacities(int rangesCapacity, int chunksCapacity) {
+        if (rangesCapacity < 0 || chunksCapacity < 0) {
+            throw new IllegalArgumentException("Capacity is negative.");
+        }
+        this.rangesCapacity = rangesCapacity;
+        this.chunksCapacity = chunksCapacity;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of files and the maximum total size in bytes of the batches into 
+     * which small files are grouped when counting in parallel, see {@link FileBatcher}. A batch 
+     * is taken by a mediator as a single work unit, its files are read one after the other with 
+     * plain synchronous reads into a reused buffer and counted into a single table, which is then 
+     * merged once for the whole batch. This saves most of the per-file overhead for trees with 
+     * many small files. The default is 0, meaning that files are not batched.
+     */
+    public WordCounter setBatchLimits(int batchFiles, int batchSize) {
+        if (batchFiles < 0 || batchSize < 0) {
+            throw new IllegalArgumentException("Batch limit is negative.");
+        }
+        this.batchFiles = batchFiles;
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the metrics into which the files, bytes, work units, pieces of text and words passing 
+     * through the counting pipeline are recorded, together with the time spent by each stage 
+     * when counting in parallel, see {@link PipelineMetrics}. The default is {@code null}, 
+     * meaning that nothing is recorded.
+     */
+    public WordCounter setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     public WordCounts count() {
+        if (cache != null) {
+            return countCached();
+        }
         return (par) ? countPar() : countSer();
     }
 
+    /**
+     * Counts the words approximately, keeping only the specified number of words with the 
+     * largest counts in a fixed amount of memory, see {@link HeavyHitters}. When counting in 
+     * parallel, each consumer thread counts into its own summary, and the summaries are merged 
+     * in parallel at the end.
+     */
+    public HeavyHitters countApprox(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity is not positive.");
+        }
+        if (!par) {
+            final HeavyHitters hh = new HeavyHitters(capacity);
+            walk((table) -> hh.add(table, op));
+            return hh;
+        }
+        final List<HeavyHitters> summaries = new ArrayList<>();
+        final ThreadLocal<HeavyHitters> local = createLocal(() -> new HeavyHitters(capacity), 
+            summaries);
+        countPar((text) -> countText(text, (table) -> local.get().add(table, op)), 
+            (bytes) -> countBytes(bytes, (table) -> local.get().add(table, op)), 
+            (table) -> local.get().add(table, op));
+        return new ForkJoinComputer<HeavyHitters>(summaries.size(), 1, 
+            (lo, hi) -> mergeSummaries(summaries, lo, hi, capacity), 
+            (hh1, hh2) -> hh1.merge(hh2), parLevel).compute();
+    }
+
+    /**
+     * Counts the words and keeps watching the path for changes, applying the changes to the 
+     * word counts as files are created, modified or deleted, see {@link WordCountWatcher}. The 
+     * returned watcher is already started and must be closed when no longer needed. Files are 
+     * not split, and the merging, the off-heap flag and the cache are not used in this mode.
+     */
+    public WordCountWatcher watch() {
+        WordCountWatcher watcher = new WordCountWatcher(this, path, op);
+        watcher.start();
+        return watcher;
+    }
+
     private WordCounts countSer() {
-        final WordCounts wc;
+        final WordCounts wc = createWordCounts(1);
+        walk((table) -> wc.add(table, op));
+        return wc;
+    }
+
+    private void walk(Consumer<WordTable> block) {
         try {
             if (Files.isDirectory(path)) {
-                wc = new WordCounts();
                 Files.walkFileTree(path, new FileVisitor(
-                    (file) -> wc.add(countWords(readFileToString(file), pred, op))));
+                    (file, attrs) -> countRange(new FileRange(file, attrs.size()), block)));
             } else {
-                wc = countWords(readFileToString(path), pred, op);
+                countRange(new FileRange(path, Files.size(path)), block);
             }
         } catch (IOException e) {
             throw new WordCounterException(String.format("Can't walk directory tree %s: %s", 
                 path.toString(), e.getMessage()), e);
         }
-        return wc;
     }
     
-    private String readFileToString(Path file) {
+    private void countRange(FileRange range, Consumer<WordTable> block) {
+        if (tokenizer == Tokenizer.BYTES) {
+            readBytesToBlock(range, (bytes) -> countBytes(bytes, block));
+        } else {
+            // The chars are counted directly in the buffer of the decoder, and merged once
+            WordTable table = tables.get();
+            readCharsToBlock(range, (chars) -> countWords(chars, table), false);
+            merge(table, block);
+            table.reset();
+        }
+    }
+    
+    private boolean isMapped(FileRange range) {
+        return (mapThreshold >= 0 && range.getSize() >= mapThreshold);
+    }
+    
+    private WordCounts countPar() {
+        return (merging == Merging.LOCAL) ? countParLocal() : countParShared();
+    }
+
+    private WordCounts countParShared() {
+        final WordCounts wc = createWordCounts(parLevel);
+        countPar((text) -> countText(text, (table) -> wc.add(table, op)), 
+            (bytes) -> countBytes(bytes, (table) -> wc.add(table, op)), 
+            (table) -> wc.add(table, op));
+        return wc;
+    }
+
+    private WordCounts countParLocal() {
+        final List<WordTable> tables = new ArrayList<>();
+        final ThreadLocal<WordTable> local = createLocal(WordTable::new, tables);
+        countPar((text) -> countWords(text, local.get()), 
+            (bytes) -> countWords(bytes, local.get()), 
+            (table) -> local.get().add(table));
+        // All consumers have finished at this point, so their tables can be safely merged
+        return mergeTables(tables);
+    }
+
+    private void countPar(Consumer<CharSequence> textBlock, Consumer<ByteBuffer> bytesBlock, 
+        Consumer<WordTable> tableBlock) {
+        IntFunction<BlockingQueue<Object>> queues = (queue == StageQueue.RING_BUFFER) ? 
+            ProducerConsumerExecutor.RING_BUFFER_QUEUES : ProducerConsumerExecutor.LINKED_QUEUES;
+        int capacity1 = (rangesCapacity > 0) ? rangesCapacity : parLevel;
+        int capacity2 = (chunksCapacity > 0) ? chunksCapacity : parLevel;
+        if (tokenizer == Tokenizer.BYTES) {
+            new ProducerConsumerExecutor<List<FileRange>, ByteBuffer>(
+                this::collectUnits,
+                (unit, block) -> readUnitToBlock(unit, block, this::readBytesToBlock, tableBlock),
+                bytesBlock::accept, parLevel, queues, capacity1, capacity2).setMetrics(metrics)
+                .execute();
+        } else {
+            new ProducerConsumerExecutor<List<FileRange>, CharSequence>(
+                this::collectUnits,
+                (unit, block) -> readUnitToBlock(unit, block, 
+                    (range, blockx) -> readCharsToBlock(range, blockx, true), tableBlock),
+                textBlock::accept, parLevel, queues, capacity1, capacity2).setMetrics(metrics)
+                .execute();
+        }
+    }
+
+    private static ThreadLocal<StreamDecoder> createDecoders(Charset charset) {
+        return ThreadLocal.withInitial(() -> new StreamDecoder(charset));
+    }
+
+    private static <T> ThreadLocal<T> createLocal(Supplier<T> supplier, List<T> all) {
+        // Each thread gets its own instance, which is also added to the list of all instances
+        return ThreadLocal.withInitial(() -> {
+            T t = supplier.get();
+            synchronized (all) {
+                all.add(t);
+            }
+            return t;
+        });
+    }
+
+    private WordCounts mergeTables(List<WordTable> tables) {
+        WordTable table = new ForkJoinComputer<WordTable>(tables.size(), 1, 
+            (lo, hi) -> mergeTables(tables, lo, hi), 
+            (table1, table2) -> table1.add(table2), parLevel).compute();
+        WordCounts wc = createWordCounts(1);
+        wc.add(table, op);
+        return wc;
+    }
+
+    private static WordTable mergeTables(List<WordTable> tables, int lo, int hi) {
+        if (lo == hi) {
+            return new WordTable();
+        }
+        WordTable result = tables.get(lo);
+        for (int i = lo + 1; i < hi; i++) {
+            result.add(tables.get(i));
+        }
+        return result;
+    }
+
+    private static HeavyHitters mergeSummaries(List<HeavyHitters> summaries, int lo, int hi, 
+        int capacity) {
+        if (lo == hi) {
+            return new HeavyHitters(capacity);
+        }
+        HeavyHitters result = summaries.get(lo);
+        for (int i = lo + 1; i < hi; i++) {
+            result.merge(summaries.get(i));
+        }
+        return result;
+    }
+
+    private WordCounts createWordCounts(int parLevel) {
+        return (offHeap) ? new OffHeapWordCounts() : new WordCounts(parLevel);
+    }
+
+    private WordCounts countCached() {
+        final Map<Path, BasicFileAttributes> found = new ConcurrentHashMap<>();
+        final FileScheduler scheduler = new FileScheduler(schedule);
+        collectFiles((file, attrs) -> {
+            if (!isCacheFile(file)) {
+                found.put(file, attrs);
+                scheduler.add(file, attrs);
+            }
+        });
+        try (CountCache cc = openCache()) {
+            // Only the files that changed are counted, in the order given by the schedule
+            Set<String> keys = new HashSet<>();
+            List<Path> files = new ArrayList<>();
+            List<BasicFileAttributes> attrss = new ArrayList<>();
+            scheduler.forEach((file, size) -> {
+                BasicFileAttributes attrs = found.get(file);
+                keys.add(CountCache.getKey(file));
+                if (!cc.matches(file, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                    files.add(file);
+                    attrss.add(attrs);
+                }
+            });
+            CountCache.Entry[] entries = countFiles(files, attrss);
+            Map<String, CountCache.Entry> changed = new HashMap<>();
+            for (int i = 0; i < entries.length; i++) {
+                changed.put(CountCache.getKey(files.get(i)), entries[i]);
+            }
+            WordCounts raw = cc.update(changed, keys);
+            cc.save();
+            Logger.info("Counted %d changed files, reused the counts of %d unchanged files", 
+                files.size(), keys.size() - files.size());
+            WordCounts wc = createWordCounts(1);
+            raw.forEach((word, count) -> wc.add((op != null) ? op.apply(word) : word, count));
+            return wc;
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't update cache %s: %s", 
+                cache.toString(), e.getMessage()), e);
+        }
+    }
+
+    CountCache.Entry[] countFiles(List<Path> files, List<BasicFileAttributes> attrss) {
+        return countFiles(files, attrss, null);
+    }
+
+    /**
+     * Counts each of the specified files separately, returning the raw word counts of each file 
+     * as a cache entry. If the counter is parallel and there are several files, they are counted 
+     * in the specified pool, or in a new pool if it is {@code null}, otherwise they are counted 
+     * in the calling thread.
+     */
+    CountCache.Entry[] countFiles(List<Path> files, List<BasicFileAttributes> attrss, 
+        ForkJoinPool pool) {
+        CountCache.Entry[] entries = new CountCache.Entry[files.size()];
+        Computer<Integer> computer = (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                BasicFileAttributes attrs = attrss.get(i);
+                if (metrics != null) {
+                    metrics.addFile(attrs.size());
+                }
+                WordCounts wc = new WordCounts();
+                countRange(new FileRange(files.get(i), attrs.size()), 
+                    (table) -> wc.add(table, null));
+                entries[i] = new CountCache.Entry(attrs.size(), 
+                    attrs.lastModifiedTime().toMillis(), wc);
+            }
+            return hi - lo;
+        };
+        if (par && files.size() > 1 && pool != null) {
+            new ForkJoinComputer<Integer>(files.size(), 1, computer, (x, y) -> x + y, pool)
+                .compute();
+        } else if (par && files.size() > 1) {
+            new ForkJoinComputer<Integer>(files.size(), 1, computer, (x, y) -> x + y, parLevel)
+                .compute();
+        } else {
+            computer.compute(0, files.size());
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a new pool for counting files in parallel, or {@code null} if the counter is not 
+     * parallel. The pool must be shut down by the caller.
+     */
+    ForkJoinPool createPool() {
+        return (par) ? new ForkJoinPool(parLevel) : null;
+    }
+
+    private boolean isCacheFile(Path file) {
+        String key = CountCache.getKey(file);
+        return key.equals(CountCache.getKey(cache)) || 
+            key.equals(CountCache.getKey(CountCache.getTempFile(cache)));
+    }
+
+    private String getCacheSettings() {
+        return String.format("%08x %s %s %b", pred.hashCode(), tokenizer, charset.name(), 
+            foldCase);
+    }
+
+    private CountCache openCache() {
         try {
-            return FileUtils.readFileToString(file);
+            return CountCache.open(cache, getCacheSettings());
         } catch (IOException e) {
-            throw new WordCounterException(String.format("Can't read file %s: %s", file.toString(), 
-                e.getMessage()), e);
+            throw new WordCounterException(String.format("Can't read cache %s: %s", 
+                cache.toString(), e.getMessage()), e);
         }
     }
 
-    private WordCounts countPar() {
-        final WordCounts wc = new WordCounts(parLevel);
-        new ProducerConsumerExecutor<Path, String>(
-                this::collectPaths,
-                this::readFileToBlock,
-            (text) -> wc.add(countWords(text, pred, op)), parLevel).execute();
-        return wc;
+    private void countText(CharSequence text, Consumer<WordTable> block) {
+        // Each thread counts its chunks in its own table, which is reset and reused for each chunk
+        WordTable table = tables.get();
+        merge(countWords(text, table), block);
+        table.reset();
+    }
+
+    private void countBytes(ByteBuffer bytes, Consumer<WordTable> block) {
+        WordTable table = tables.get();
+        merge(countWords(bytes, table), block);
+        table.reset();
+    }
+
+    private WordTable countWords(CharSequence text, WordTable table) {
+        long total = table.getTotal();
+        long t0 = Tracer.begin();
+        countWordsToTable(text, pred, foldCase, table);
+        Tracer.end(Tracer.Event.TOKENIZE, t0, null);
+        if (metrics != null) {
+            metrics.addWords(table.getTotal() - total);
+        }
+        return table;
+    }
+
+    private WordTable countWords(ByteBuffer bytes, WordTable table) {
+        long total = table.getTotal();
+        long t0 = Tracer.begin();
+        countWordsToTable(bytes, pred, foldCase, swar, table);
+        Tracer.end(Tracer.Event.TOKENIZE, t0, null);
+        if (metrics != null) {
+            metrics.addWords(table.getTotal() - total);
+        }
+        return table;
+    }
+
+    private void collectUnits(Consumer<List<FileRange>> block) {
+        FileBatcher batcher = new FileBatcher(batchFiles, batchSize, block);
+        collectRanges(batcher::add);
+        batcher.flush();
     }
 
-    private void collectPaths(Consumer<Path> block) {
+    private void collectRanges(Consumer<FileRange> block) {
+        if (schedule == Schedule.WALK) {
+            collectFiles((file, attrs) -> splitFile(file, attrs.size(), block));
+        } else {
+            FileScheduler scheduler = new FileScheduler(schedule);
+            collectFiles(scheduler::add);
+            scheduler.forEach((file, size) -> splitFile(file, size, block));
+        }
+    }
+
+    private void collectFiles(BiConsumer<Path, BasicFileAttributes> visitor) {
         try {
-            if (Files.isDirectory(path)) {
-                Files.walkFileTree(path, new FileVisitor(block::accept));
+            if (Files.isDirectory(path) && traversal == Traversal.PARALLEL) {
+                FileUtils.walkFileTreePar(path, visitor, parLevel);
+            } else if (Files.isDirectory(path)) {
+                Files.walkFileTree(path, new FileVisitor(visitor));
             } else {
-                block.accept(path);
+                visitor.accept(path, Files.readAttributes(path, BasicFileAttributes.class));
             }
         } catch (IOException e) {
             throw new WordCounterException(String.format("Can't walk directory tree %s: %s", 
@@ -129,37 +730,211 @@ public class WordCounter {
         }
     }
     
-    private void readFileToBlock(Path file, Consumer<String> block) {
+    private void splitFile(Path file, long size, Consumer<FileRange> block) {
+        if (metrics != null) {
+            metrics.addFile(size);
+        }
+        if (!isSplit(size)) {
+            block.accept(new FileRange(file, size));
+            return;
+        }
+        long start = 0;
+        for (int i = 1; i < parLevel; i++) {
+            long end = getSplitIndex(file, start, i * (size / parLevel));
+            if (end > start) {
+                block.accept(new FileRange(file, start, end));
+                start = end;
+            }
+        }
+        block.accept(new FileRange(file, start, size));
+    }
+    
+    private boolean isSplit(long size) {
+        boolean utf8 = (tokenizer == Tokenizer.BYTES || charset.equals(StandardCharsets.UTF_8));
+        return (splitThreshold >= 0 && size >= splitThreshold && parLevel > 1 && utf8);
+    }
+
+    private long getSplitIndex(Path file, long start, long index) {
+        // Move the index back to the beginning of the word it is in, so that each word is counted 
+        // in exactly one range; if the word is longer than the split window, don't split here
+        int length = (int) Math.min(SPLIT_WINDOW, index - start);
         try {
-            FileUtils.readFileAsync(file, (String text, String state) -> { 
-                return applyText(text, state, block); 
-            });
+            ByteBuffer bytes = FileUtils.readFileBytes(file, index - length, length);
+            int ei = getEndWordIndex(bytes, pred);
+            return (ei > 0 || index - length == start) ? index - length + ei : start;
         } catch (IOException e) {
             throw new WordCounterException(String.format("Can't read file %s: %s", file.toString(), 
                 e.getMessage()), e);
         }
     }
+    
+    private <T> void readUnitToBlock(List<FileRange> unit, Consumer<T> block, 
+        BiConsumer<FileRange, Consumer<T>> reader, Consumer<WordTable> tableBlock) {
+        if (unit.size() == 1) {
+            reader.accept(unit.get(0), block);
+        } else {
+            countBatch(unit, tableBlock);
+        }
+    }
+
+    private void countBatch(List<FileRange> batch, Consumer<WordTable> block) {
+        // All files in the batch are counted into the table of this thread, which is merged once
+        WordTable table = tables.get();
+        for (FileRange range : batch) {
+            ByteBuffer bytes = readRangeToBuffer(range);
+            if (tokenizer == Tokenizer.BYTES) {
+                countWords(bytes, table);
+            } else {
+                StreamDecoder decoder = decoders.get();
+                decoder.reset();
+                CharBuffer chars = decoder.decode(bytes, true);
+                countWords(chars, table);
+                chars.position(chars.limit());
+            }
+        }
+        merge(table, block);
+        table.reset();
+    }
+
+    private static void merge(WordTable table, Consumer<WordTable> block) {
+        long t0 = Tracer.begin();
+        block.accept(table);
+        Tracer.end(Tracer.Event.MERGE, t0, null);
+    }
+
+    private ByteBuffer readRangeToBuffer(FileRange range) {
+        try {
+            // The size of a whole file is taken again, following links, as it is read to its end
+            int size = (int) (range.isWhole() ? Files.size(range.getFile()) : range.getSize());
+            ByteBuffer buffer = buffers.get();
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() << 1));
+                buffers.set(buffer);
+            }
+            buffer.clear();
+            buffer.limit(size);
+            FileUtils.readFileBytes(range.getFile(), range.getStart(), buffer);
+            return buffer;
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't read file %s: %s", 
+                range.getFile().toString(), e.getMessage()), e);
+        }
+    }
+
+    private void readCharsToBlock(FileRange range, Consumer<CharSequence> block, boolean copy) {
+        StreamDecoder decoder = decoders.get();
+        decoder.reset();
+        BytesProcessor<Void> processor = (ByteBuffer bytes, Void state) -> {
+            boolean last = !bytes.hasRemaining();
+            applyChars(decoder.decode(bytes, last), last, block, copy);
+            return null;
+        };
+        try {
+            if (isMapped(range)) {
+                FileUtils.readFileBytesMapped(range.getFile(), range.getStart(), 
+                    range.getReadEnd(), processor);
+            } else {
+                FileUtils.readFileBytesAsync(range.getFile(), range.getStart(), 
+                    range.getReadEnd(), processor);
+            }
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't read file %s: %s", 
+                range.getFile().toString(), e.getMessage()), e);
+        }
+    }
+
+    private void applyChars(CharBuffer chars, boolean last, Consumer<CharSequence> block, 
+        boolean copy) {
+        // Only the chars up to the last word boundary are passed on, the word split between these 
+        // and the next bytes is left in the buffer, where the decoder appends the next chars to it
+        int ei = last ? chars.limit() : chars.position() + getEndWordIndex(chars, pred);
+        if (ei > chars.position()) {
+            CharBuffer text = chars.duplicate();
+            text.limit(ei);
+            if (copy) {
+                // The chars are handed over to another thread, so they can't stay in the buffer
+                CharBuffer textx = CharBuffer.allocate(text.remaining());
+                textx.put(text);
+                textx.flip();
+                text = textx;
+            }
+            block.accept(text);
+            chars.position(ei);
+        }
+    }
+
+    private void readBytesToBlock(FileRange range, Consumer<ByteBuffer> block) {
+        BytesProcessor<ByteBuffer> processor = (ByteBuffer bytes, ByteBuffer state) -> {
+            return applyBytes(bytes, state, block);
+        };
+        try {
+            if (isMapped(range)) {
+                FileUtils.readFileBytesMapped(range.getFile(), range.getStart(), 
+                    range.getReadEnd(), processor);
+            } else {
+                FileUtils.readFileBytesAsync(range.getFile(), range.getStart(), 
+                    range.getReadEnd(), processor);
+            }
+        } catch (IOException e) {
+            throw new WordCounterException(String.format("Can't read file %s: %s", 
+                range.getFile().toString(), e.getMessage()), e);
+        }
+    }
+
+    private ByteBuffer applyBytes(ByteBuffer bytes, ByteBuffer state, Consumer<ByteBuffer> block) {
+        if (!bytes.hasRemaining()) {
+            if (state != null && state.hasRemaining()) {
+                block.accept(state);
+            }
+            return null;
+        }
+        int bi = getBeginWordIndex(bytes, pred);
+        int ei = getEndWordIndex(bytes, pred);
+        if (bi == bytes.limit() || ei < bi) {
+            // No word boundary in these bytes, the word continues in the next buffer, possibly 
+            // after an incomplete sequence at the end, which may still turn out to be a word char
+            return concat(state, bytes, bytes.limit());
+        }
+        // Only the word split between the previous and these bytes is copied, the rest is sliced
+        ByteBuffer head = concat(state, bytes, bi);
+        if (head.hasRemaining()) {
+            block.accept(head);
+        }
+        if (ei > bi) {
+            block.accept(slice(bytes, bi, ei));
+        }
+        return slice(bytes, ei, bytes.limit());
+    }
+
+    private static ByteBuffer concat(ByteBuffer state, ByteBuffer bytes, int ei) {
+        if (state == null || !state.hasRemaining()) {
+            return slice(bytes, bytes.position(), ei);
+        }
+        ByteBuffer result = ByteBuffer.allocate(state.remaining() + ei - bytes.position());
+        result.put(state.duplicate());
+        result.put(slice(bytes, bytes.position(), ei));
+        result.flip();
+        return result;
+    }
 
-    private String applyText(String text, String state, Consumer<String> block) {
-        int ei = getEndWordIndex(text, pred);
-        String rem = (state != null) ? state : "";
-        String textx = rem + text.substring(0, ei);
-        rem = text.substring(ei);
-        block.accept(textx);
-        return rem;
+    private static ByteBuffer slice(ByteBuffer bytes, int bi, int ei) {
+        ByteBuffer result = bytes.duplicate();
+        result.limit(ei);
+        result.position(bi);
+        return result;
     }
     
     final static class FileVisitor extends SimpleFileVisitor<Path> {
     
-        private final Consumer<Path> block;
+        private final BiConsumer<Path, BasicFileAttributes> block;
 
-        public FileVisitor(Consumer<Path> block) {
+        public FileVisitor(BiConsumer<Path, BasicFileAttributes> block) {
             this.block = block;
         }
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            block.accept(file);
+            block.accept(file, attrs);
             return FileVisitResult.CONTINUE;
         }
     }
@@ -17,17 +17,18 @@
  */
 package com.stoyanr.wordcounter;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
 import com.stoyanr.util.Logger;
 
@@ -37,7 +38,9 @@ import com.stoyanr.util.Logger;
  * Internally, this class encapsulates a {@code Map<String, AtomicInteger>} which is either a 
  * {@code HashMap} or a {@code ConcurrentHashMap} depending on the parallelism level specified 
  * upon construction. The word counting methods of {@link WordUtils} and {@link WordCounter} return 
- * instances of this class.
+ * instances of this class. Subclasses may keep the word counts elsewhere, see 
+ * {@link OffHeapWordCounts}. Word counts can be saved to a file and loaded back as 
+ * {@link MappedWordCounts}.
  * 
  * @author Stoyan Rachev
  */
@@ -50,8 +53,12 @@ public class WordCounts {
     }
     
     public WordCounts(int parLevel) {
-        this.m = (parLevel == 1) ? new HashMap<String, AtomicInteger>() : 
-            new ConcurrentHashMap<String, AtomicInteger>(4096, 0.75f, parLevel);
+        this((parLevel == 1) ? new HashMap<String, AtomicInteger>() : 
+            new ConcurrentHashMap<String, AtomicInteger>(4096, 0.75f, parLevel));
+    }
+    
+    WordCounts(Map<String, AtomicInteger> m) {
+        this.m = m;
     }
     
     public int getSize() {
@@ -76,10 +83,24 @@ public class WordCounts {
     }
 
     public void add(WordCounts wc) {
-        for (Map.Entry<String, AtomicInteger> e : wc.m.entrySet()) {
-            add(e.getKey(), e.getValue().get());
+        wc.forEach(this::add);
+    }
+    
+    /**
+     * Subtracts the specified count from the count of the specified word, removing the word if 
+     * its count drops to zero. This is used by {@link WordCountWatcher} to take back the words of 
+     * a file that changed, and must not be called concurrently with adding the same word.
+     */
+    void subtract(String word, int count) {
+        AtomicInteger cc = m.get(word);
+        if (cc != null && cc.addAndGet(-count) <= 0) {
+            m.remove(word);
         }
     }
+
+    void add(WordTable table, UnaryOperator<String> op) {
+        table.forEach((word, count) -> add((op != null) ? op.apply(word) : word, count));
+    }
     
     public void set(String word, int count) {
         AtomicInteger cc = m.get(word);
@@ -98,6 +119,17 @@ public class WordCounts {
         }
     }
     
+    public int get(String word) {
+        AtomicInteger cc = m.get(word);
+        return (cc != null) ? cc.get() : 0;
+    }
+    
+    public void forEach(BiConsumer<String, Integer> block) {
+        for (Map.Entry<String, AtomicInteger> e : m.entrySet()) {
+            block.accept(e.getKey(), e.getValue().get());
+        }
+    }
+    
     public void forEachInRange(int lo, int hi, BiConsumer<String, Integer> block) {
         Iterator<Map.Entry<String, AtomicInteger>> it = m.entrySet().iterator();
         for (int i = 0; i < lo; i++) {
@@ -109,11 +141,66 @@ public class WordCounts {
         }
     }
 
+    /**
+     * Returns the specified number of top words in the order specified by the comparator. This 
+     * implementation iterates over all words, see {@link WordCountAnalyzer} for doing it in 
+     * parallel. Subclasses that keep their words indexed by count should override it.
+     */
+    public TopWordCounts findTop(int number, Comparator<Integer> comparator) {
+        TopWordCounts result = new TopWordCounts(number, comparator);
+        forEach((word, count) -> result.addIfNeeded(count, word));
+        return result;
+    }
+
+    /**
+     * Returns the sum of the counts of all words. This implementation iterates over all words, 
+     * see {@link WordCountAnalyzer} for doing it in parallel. Subclasses that keep the total 
+     * should override it.
+     */
+    public long getTotal() {
+        long[] result = new long[] { 0 };
+        forEach((word, count) -> { result[0] += count; });
+        return result[0];
+    }
+
+    /**
+     * Returns whether {@link #findTop(int, Comparator)} and {@link #getTotal()} are answered 
+     * without iterating over all words, in which case there is no point in analyzing the word 
+     * counts in parallel.
+     */
+    boolean isIndexed() {
+        return false;
+    }
+
+    /**
+     * Returns word counts with the same contents that can be accessed by index, so that 
+     * {@code forEachInRange} doesn't need to iterate up to the start of the range. The contents 
+     * of this instance are copied to arrays, unless it already supports access by index.
+     */
+    public WordCounts snapshot() {
+        return new ArrayWordCounts(this);
+    }
+
+    /**
+     * Saves the word counts to the specified file in a compact binary format, which can be 
+     * loaded with {@link #load(Path)}, see {@link MappedWordCounts}.
+     */
+    public void save(Path file) throws IOException {
+        Logger.debug("Saving word counts to %s", file.toString());
+        MappedWordCounts.write(this, file);
+    }
+
+    /**
+     * Loads word counts saved with {@link #save(Path)}. The file is memory-mapped rather than 
+     * read, and the returned word counts are read-only.
+     */
+    public static MappedWordCounts load(Path file) throws IOException {
+        return MappedWordCounts.map(file);
+    }
+
     public void print(PrintStream ps) {
         Logger.debug("Printing raw word counts");
-        for (Entry<String, AtomicInteger> e : m.entrySet()) {
-            ps.printf("%20s: %d\n",  e.getKey(), e.getValue());
-        }
+        forEach((word, count) -> ps.printf("%20s: %d\n", word, count));
     }
 
     @Override
@@ -122,23 +209,22 @@ public class WordCounts {
             return false;
         }
         WordCounts wc = (WordCounts) o;
-        if (m.size() != wc.m.size()) {
+        if (getSize() != wc.getSize()) {
             return false;
         }
-        for (Entry<String, AtomicInteger> e : wc.m.entrySet()) {
-            if (m.get(e.getKey()).get() != e.getValue().get()) {
-                return false;
+        boolean[] result = new boolean[] { true };
+        wc.forEach((word, count) -> {
+            if (result[0] && get(word) != count) {
+                result[0] = false;
             }
-        }
-        return true;
+        });
+        return result[0];
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(m);
-    }
-    
-    Set<Entry<String, AtomicInteger>> getEntries() {
-        return m.entrySet();
+        int[] result = new int[] { 0 };
+        forEach((word, count) -> { result[0] += word.hashCode() ^ count; });
+        return result[0];
     }
 }
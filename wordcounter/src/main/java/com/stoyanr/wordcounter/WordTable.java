@@ -0,0 +1,201 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * An open-addressing hash table of words mapped to their usage counts, used for counting the
+ * words in a single piece of text before adding them to a {@link WordCounts}. Words are looked up
+ * by a range of chars and their hash code, computed as in {@code String.hashCode}, so that a
+ * {@code String} is created only when a word is added for the first time. Keys, hash codes, and
+ * counts are kept in parallel arrays and probed linearly. A table can be reset and reused for 
+ * the next piece of text, keeping its arrays and also its keys, with their counts set to zero, 
+ * so that a word seen in an earlier chunk doesn't allocate a new string. The slots counted since 
+ * the last reset are listed separately, so that iterating over and resetting the table only 
+ * visits the words of the current chunk. Once the table holds more than {@code RETAINED_KEYS} 
+ * words, it is cleared on reset, to keep large vocabularies from accumulating in every thread. 
+ * This class is not thread-safe.
+ *
+ * @author Stoyan Rachev
+ */
+final class WordTable {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    private static final int RETAINED_KEYS = 1 << 16;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] counts;
+    private int[] used;
+    private int numUsed;
+    private int size;
+    private int shift;
+    private long total;
+
+    WordTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    WordTable(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1);
+    }
+
+    int getSize() {
+        return numUsed;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    void add(char[] chars, int off, int len, int hash, int count) {
+        total += count;
+        int i = index(hash);
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && equals(key, chars, off, len)) {
+                increment(i, count);
+                return;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        insert(i, new String(chars, off, len), hash, count);
+    }
+
+    void add(String text, int off, int len, int hash, int count) {
+        total += count;
+        int i = index(hash);
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.length() == len && key.regionMatches(0, text, off, len)) {
+                increment(i, count);
+                return;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        insert(i, text.substring(off, off + len), hash, count);
+    }
+
+    WordTable add(WordTable table) {
+        for (int k = 0; k < table.numUsed; k++) {
+            int j = table.used[k];
+            add(table.keys[j], table.hashes[j], table.counts[j]);
+        }
+        return this;
+    }
+
+    private void add(String word, int hash, int count) {
+        total += count;
+        int i = index(hash);
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(word)) {
+                increment(i, count);
+                return;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        insert(i, word, hash, count);
+    }
+
+    void reset() {
+        if (size > RETAINED_KEYS) {
+            Arrays.fill(keys, null);
+            Arrays.fill(counts, 0);
+            size = 0;
+        } else {
+            for (int k = 0; k < numUsed; k++) {
+                counts[used[k]] = 0;
+            }
+        }
+        numUsed = 0;
+        total = 0;
+    }
+
+    void forEach(BiConsumer<String, Integer> block) {
+        for (int k = 0; k < numUsed; k++) {
+            int i = used[k];
+            block.accept(keys[i], counts[i]);
+        }
+    }
+
+    private void increment(int i, int count) {
+        if (counts[i] == 0) {
+            used[numUsed++] = i;
+        }
+        counts[i] += count;
+    }
+
+    private void insert(int i, String key, int hash, int count) {
+        keys[i] = key;
+        hashes[i] = hash;
+        counts[i] = count;
+        used[numUsed++] = i;
+        if (++size > (keys.length >>> 1)) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        String[] keysx = keys;
+        int[] hashesx = hashes, countsx = counts;
+        allocate(keys.length << 1);
+        numUsed = 0;
+        for (int j = 0; j < keysx.length; j++) {
+            if (keysx[j] != null) {
+                int i = index(hashesx[j]);
+                while (keys[i] != null) {
+                    i = (i + 1) & (keys.length - 1);
+                }
+                keys[i] = keysx[j];
+                hashes[i] = hashesx[j];
+                counts[i] = countsx[j];
+                if (counts[i] != 0) {
+                    used[numUsed++] = i;
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        used = new int[(capacity >>> 1) + 1];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private int index(int hash) {
+        return (hash * HASH_MULTIPLIER) >>> shift;
+    }
+
+    private static boolean equals(String key, char[] chars, int off, int len) {
+        if (key.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key.charAt(i) != chars[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,6 +17,9 @@
  */
 package com.stoyanr.wordcounter;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.function.UnaryOperator;
 
 import com.stoyanr.util.CharPredicate;
@@ -25,6 +28,12 @@ import com.stoyanr.util.CharPredicate;
  * A utility class that provides several overloaded static methods for counting words in strings. 
  * The central method {@code countWords} accepts a string, a predicate to determine whether a 
  * character is a word character, and an optional unary operator to be performed on words. 
+ * There are also overloads that accept UTF-8 encoded bytes in a {@code ByteBuffer}, which count 
+ * the words without decoding the bytes to a string first. Internally, words are also counted in 
+ * other char sequences, such as the char buffers of a {@link com.stoyanr.util.StreamDecoder}, 
+ * without converting them to strings. Words can be counted regardless of case either by passing 
+ * an operator such as {@code String::toLowerCase}, which is applied to each distinct word, or 
+ * by setting {@code foldCase}, which folds the chars while scanning, see {@link CaseFolder}.
  * <p>
  * <pre>
  * // Count all words consisting of only alphabetic chars, ignoring case
@@ -40,34 +49,194 @@ public class WordUtils {
     }
 
     public static WordCounts countWords(String text, CharPredicate pred, UnaryOperator<String> op) {
-        assert (text != null);
         WordCounts result = new WordCounts();
+        result.add(countWordsToTable(text, pred, new WordTable()), op);
+        return result;
+    }
+
+    public static WordCounts countWords(String text, CharPredicate pred, boolean foldCase) {
+        WordCounts result = new WordCounts();
+        result.add(countWordsToTable(text, pred, foldCase, new WordTable()), null);
+        return result;
+    }
+
+    /**
+     * Returns the case folded form of the specified word, under which it is counted if 
+     * {@code foldCase} is set.
+     */
+    public static String foldCase(String word) {
+        return CaseFolder.fold(word);
+    }
+
+    static WordTable countWordsToTable(String text, CharPredicate pred, WordTable table) {
+        assert (text != null);
         int i = 0;
         while (i < text.length()) {
             while (i < text.length() && !pred.test(text.charAt(i))) {
                 i++;
             }
-            int bi = i;
-            while (i < text.length() && pred.test(text.charAt(i))) {
+            int bi = i, hash = 0;
+            char c;
+            while (i < text.length() && pred.test(c = text.charAt(i))) {
+                hash = 31 * hash + c;
                 i++;
             }
             int ei = i;
             if (bi != ei) {
-                String word = text.substring(bi, ei);
-                if (op != null) {
-                    word = op.apply(word);
+                table.add(text, bi, ei - bi, hash, 1);
+            }
+        }
+        return table;
+    }
+    
+    static WordTable countWordsToTable(String text, CharPredicate pred, boolean foldCase, 
+        WordTable table) {
+        if (!foldCase) {
+            return countWordsToTable(text, pred, table);
+        }
+        assert (text != null);
+        char[] word = new char[64];
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && !pred.test(text.charAt(i))) {
+                i++;
+            }
+            int len = 0, hash = 0;
+            boolean surrogates = false;
+            char c;
+            while (i < text.length() && pred.test(c = text.charAt(i))) {
+                if (len == word.length) {
+                    word = Arrays.copyOf(word, len << 1);
                 }
-                result.add(word, 1);
+                c = CaseFolder.fold(c);
+                surrogates |= Character.isSurrogate(c);
+                word[len++] = c;
+                hash = 31 * hash + c;
+                i++;
+            }
+            if (len > 0) {
+                table.add(word, 0, len, surrogates ? CaseFolder.fold(word, len) : hash, 1);
             }
         }
-        return result;
+        return table;
     }
     
-    public static int getEndWordIndex(String text, CharPredicate pred) {
+    static WordTable countWordsToTable(CharSequence text, CharPredicate pred, boolean foldCase, 
+        WordTable table) {
+        assert (text != null);
+        if (text instanceof String) {
+            return countWordsToTable((String) text, pred, foldCase, table);
+        } else if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+            CharBuffer chars = (CharBuffer) text;
+            int off = chars.arrayOffset();
+            return countWordsToTable(chars.array(), off + chars.position(), off + chars.limit(), 
+                pred, foldCase, table);
+        }
+        return countWordsToTable(text.toString(), pred, foldCase, table);
+    }
+
+    static WordTable countWordsToTable(char[] chars, int start, int end, CharPredicate pred, 
+        WordTable table) {
+        int i = start;
+        while (i < end) {
+            while (i < end && !pred.test(chars[i])) {
+                i++;
+            }
+            int bi = i, hash = 0;
+            char c;
+            while (i < end && pred.test(c = chars[i])) {
+                hash = 31 * hash + c;
+                i++;
+            }
+            int ei = i;
+            if (bi != ei) {
+                table.add(chars, bi, ei - bi, hash, 1);
+            }
+        }
+        return table;
+    }
+
+    static WordTable countWordsToTable(char[] chars, int start, int end, CharPredicate pred, 
+        boolean foldCase, WordTable table) {
+        if (!foldCase) {
+            return countWordsToTable(chars, start, end, pred, table);
+        }
+        char[] word = new char[64];
+        int i = start;
+        while (i < end) {
+            while (i < end && !pred.test(chars[i])) {
+                i++;
+            }
+            int len = 0, hash = 0;
+            boolean surrogates = false;
+            char c;
+            while (i < end && pred.test(c = chars[i])) {
+                if (len == word.length) {
+                    word = Arrays.copyOf(word, len << 1);
+                }
+                c = CaseFolder.fold(c);
+                surrogates |= Character.isSurrogate(c);
+                word[len++] = c;
+                hash = 31 * hash + c;
+                i++;
+            }
+            if (len > 0) {
+                table.add(word, 0, len, surrogates ? CaseFolder.fold(word, len) : hash, 1);
+            }
+        }
+        return table;
+    }
+
+    public static int getEndWordIndex(CharSequence text, CharPredicate pred) {
         int ei = text.length();
         while (ei > 0 && pred.test(text.charAt(ei - 1))) {
             ei--;
         }
         return ei;
     }
+
+    public static WordCounts countWords(ByteBuffer bytes, CharPredicate pred) {
+        return countWords(bytes, pred, null);
+    }
+
+    public static WordCounts countWords(ByteBuffer bytes, CharPredicate pred, UnaryOperator<String> op) {
+        WordCounts result = new WordCounts();
+        result.add(countWordsToTable(bytes, pred, new WordTable()), op);
+        return result;
+    }
+
+    public static WordCounts countWords(ByteBuffer bytes, CharPredicate pred, boolean foldCase) {
+        WordCounts result = new WordCounts();
+        result.add(countWordsToTable(bytes, pred, foldCase, new WordTable()), null);
+        return result;
+    }
+
+    static WordTable countWordsToTable(ByteBuffer bytes, CharPredicate pred, WordTable table) {
+        return countWordsToTable(bytes, pred, false, table);
+    }
+
+    static WordTable countWordsToTable(ByteBuffer bytes, CharPredicate pred, boolean foldCase, 
+        WordTable table) {
+        return countWordsToTable(bytes, pred, foldCase, false, table);
+    }
+
+    static WordTable countWordsToTable(ByteBuffer bytes, CharPredicate pred, boolean foldCase, 
+        boolean swar, WordTable table) {
+        assert (bytes != null);
+        Utf8Scanner scanner = new Utf8Scanner(pred, foldCase, table);
+        if (swar) {
+            scanner.scanSwar(bytes);
+        } else {
+            scanner.scan(bytes);
+        }
+        return table;
+    }
+
+    public static int getBeginWordIndex(ByteBuffer bytes, CharPredicate pred) {
+        return Utf8Scanner.getBeginWordIndex(bytes, pred);
+    }
+
+    public static int getEndWordIndex(ByteBuffer bytes, CharPredicate pred) {
+        return Utf8Scanner.getEndWordIndex(bytes, pred);
+    }
 }
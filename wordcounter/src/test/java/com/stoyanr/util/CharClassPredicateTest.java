@@ -0,0 +1,95 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class CharClassPredicateTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { "Alphabetic", "", (CharPredicate) Character::isAlphabetic },
+            { "Alphabetic", "0123456789'", (CharPredicate) (c) -> Character.isAlphabetic(c) || 
+                (c >= '0' && c <= '9') || c == '\'' },
+            { "L", "", (CharPredicate) Character::isLetter },
+            { "L,Nd", "", (CharPredicate) Character::isLetterOrDigit },
+            { " Lu , Ll ", "", (CharPredicate) (c) -> 
+                Character.getType(c) == Character.UPPERCASE_LETTER || 
+                Character.getType(c) == Character.LOWERCASE_LETTER },
+            { "Ideographic", "", (CharPredicate) Character::isIdeographic },
+            { "Z", "", (CharPredicate) Character::isSpaceChar },
+            { "", "abc", (CharPredicate) (c) -> c >= 'a' && c <= 'c' },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final String classes;
+    private final String chars;
+    private final CharPredicate expected;
+
+    public CharClassPredicateTest(String classes, String chars, CharPredicate expected) {
+        this.classes = classes;
+        this.chars = chars;
+        this.expected = expected;
+    }
+
+    @Test
+    public void testOfClasses() {
+        assertMatches(expected, CharClassPredicate.of(classes, chars));
+    }
+
+    @Test
+    public void testOfPredicate() {
+        CharClassPredicate pred = CharClassPredicate.of(expected);
+        assertMatches(expected, pred);
+        assertSame(pred, CharClassPredicate.of(pred));
+    }
+
+    @Test
+    public void testEquals() {
+        CharClassPredicate pred = CharClassPredicate.of(classes, chars);
+        assertEquals(CharClassPredicate.of(expected), pred);
+        assertEquals(CharClassPredicate.of(expected).hashCode(), pred.hashCode());
+        assertFalse(pred.equals(CharClassPredicate.of(classes, chars + "#")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownClass() {
+        CharClassPredicate.of(classes + ",Xy", chars);
+    }
+
+    private static void assertMatches(CharPredicate expected, CharPredicate pred) {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            assertEquals(Integer.toHexString(c), expected.test((char) c), pred.test((char) c));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class FileUtilsTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 0, 1000 },
+            { 10000, 1000 },
+            { 1000000, 300000 },
+            { 1000000, 1000000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int size;
+    private final long mapSize;
+
+    private byte[] expected;
+    private Path file;
+
+    public FileUtilsTest(int size, long mapSize) {
+        this.size = size;
+        this.mapSize = mapSize;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        expected = new byte[size];
+        new Random(size).nextBytes(expected);
+        file = Files.createTempFile("wordcounter", ".bin");
+        Files.write(file, expected);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testReadFileBytesAsync() throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        FileUtils.readFileBytesAsync(file, (ByteBuffer bytes, Void x) -> {
+            append(result, bytes);
+            return x;
+        });
+        assertArrayEquals(expected, result.toByteArray());
+    }
+
+    @Test
+    public void testReadFileBytesMapped() throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        FileUtils.readFileBytesMapped(file, mapSize, (ByteBuffer bytes, Void x) -> {
+            append(result, bytes);
+            return x;
+        });
+        assertArrayEquals(expected, result.toByteArray());
+    }
+
+    private static void append(ByteArrayOutputStream result, ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            result.write(bytes.get());
+        }
+    }
+}
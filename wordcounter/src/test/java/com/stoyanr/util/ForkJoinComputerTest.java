@@ -19,6 +19,8 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -52,4 +54,18 @@ public class ForkJoinComputerTest {
             (a, b) -> a + b).compute();
         assertEquals((n + 1) * (n / 2), result);
     }
+
+    @Test
+    public void testSharedPool() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int k = 1; k <= 3; k++) {
+                long result = new ForkJoinComputer<Long>(n, 1000, 
+                    (lo, hi) -> (long) (hi - lo), (a, b) -> a + b, pool).compute();
+                assertEquals(n, result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Stoyan.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of handing over trivial items through both stages of 
+ * {@link ProducerConsumerExecutor}, with the specified stage queues and capacity, which 
+ * approximates a tree with a large number of tiny files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerConsumerExecutorBenchmark {
+
+    private static final int ITEMS = 100_000;
+
+    @Param({ "linked", "ring" })
+    private String queue;
+
+    @Param({ "4", "256" })
+    private int capacity;
+
+    @Param({ "4" })
+    private int parLevel;
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public long execute() {
+        IntFunction<BlockingQueue<Object>> queues = queue.equals("ring") ? 
+            ProducerConsumerExecutor.RING_BUFFER_QUEUES : ProducerConsumerExecutor.LINKED_QUEUES;
+        LongAdder sum = new LongAdder();
+        new ProducerConsumerExecutor<Integer, Integer>(
+            (block) -> {
+                for (int i = 0; i < ITEMS; i++) {
+                    block.accept(i);
+                }
+            }, 
+            (i, block) -> block.accept(i), 
+            sum::add, parLevel, queues, capacity, capacity).execute();
+        return sum.sum();
+    }
+}
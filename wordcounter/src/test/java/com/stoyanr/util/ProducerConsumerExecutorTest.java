@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Stoyan.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class ProducerConsumerExecutorTest {
+    
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] { 
+            { 0, 1, 1 }, { 0, 4, 4 }, { 100_000, 1, 1 }, { 100_000, 4, 4 }, { 100_000, 4, 64 } };
+        // @formatter:on
+        return asList(data);
+    }
+    
+    private final int n;
+    private final int parLevel;
+    private final int capacity;
+    
+    public ProducerConsumerExecutorTest(int n, int parLevel, int capacity) {
+        this.n = n;
+        this.parLevel = parLevel;
+        this.capacity = capacity;
+    }
+    
+    @Test(timeout = 10000)
+    public void test() {
+        for (IntFunction<BlockingQueue<Object>> queues : asList(
+            ProducerConsumerExecutor.RING_BUFFER_QUEUES, ProducerConsumerExecutor.LINKED_QUEUES)) {
+            AtomicLong sum = new AtomicLong();
+            new ProducerConsumerExecutor<Integer, Long>(
+                (block) -> {
+                    for (int i = 1; i <= n; i++)
+                        block.accept(i);
+                }, 
+                (i, block) -> block.accept((long) i * 2), 
+                (x) -> sum.addAndGet(x), parLevel, queues, capacity, capacity).execute();
+            assertEquals((long) n * (n + 1), sum.get());
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testMetrics() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        new ProducerConsumerExecutor<Integer, Long>(
+            (block) -> {
+                for (int i = 1; i <= n; i++)
+                    block.accept(i);
+            }, 
+            (i, block) -> {
+                block.accept((long) i);
+                block.accept((long) -i);
+            }, 
+            (x) -> metrics.addWords(1), parLevel, ProducerConsumerExecutor.LINKED_QUEUES, 
+            capacity, capacity).setMetrics(metrics).execute();
+        assertEquals(n, metrics.getProducedItems());
+        assertEquals(2 * n, metrics.getMediatedItems());
+        assertEquals(2 * n, metrics.getConsumedItems());
+        assertEquals(2 * n, metrics.getWords());
+        assertEquals(0, metrics.getMediatorQueueSize());
+        assertEquals(0, metrics.getConsumerQueueSize());
+        assertTrue(metrics.getMediatorBusyRatio() >= 0 && metrics.getMediatorBusyRatio() <= 1);
+        assertTrue(metrics.getConsumerBusyRatio() >= 0 && metrics.getConsumerBusyRatio() <= 1);
+        metrics.reset();
+        assertEquals(0, metrics.getConsumedItems());
+    }
+
+    @Test(timeout = 10000)
+    public void testProducerFailure() {
+        AtomicLong sum = new AtomicLong();
+        new ProducerConsumerExecutor<Integer, Long>(
+            (block) -> {
+                block.accept(1);
+                throw new IllegalStateException();
+            }, 
+            (i, block) -> block.accept((long) i), 
+            (x) -> sum.addAndGet(x), parLevel).execute();
+        assertEquals(1, sum.get());
+    }
+}
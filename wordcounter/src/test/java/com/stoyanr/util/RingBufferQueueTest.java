@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Stoyan.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class RingBufferQueueTest {
+    
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] { { 1, 2 }, { 3, 4 }, { 16, 16 } };
+        // @formatter:on
+        return asList(data);
+    }
+    
+    private final int capacity;
+    private final int expectedCapacity;
+    
+    public RingBufferQueueTest(int capacity, int expectedCapacity) {
+        this.capacity = capacity;
+        this.expectedCapacity = expectedCapacity;
+    }
+    
+    @Test
+    public void testOfferPoll() throws InterruptedException {
+        RingBufferQueue<Integer> q = new RingBufferQueue<>(capacity);
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < expectedCapacity; i++) {
+                assertTrue(q.offer(i));
+            }
+            assertFalse(q.offer(-1));
+            assertFalse(q.offer(-1, 1, TimeUnit.MILLISECONDS));
+            assertEquals(expectedCapacity, q.size());
+            assertEquals(0, q.remainingCapacity());
+            assertEquals(0, (int) q.peek());
+            for (int i = 0; i < expectedCapacity; i++) {
+                assertEquals(i, (int) q.poll());
+            }
+            assertNull(q.poll());
+            assertNull(q.poll(1, TimeUnit.MILLISECONDS));
+            assertTrue(q.isEmpty());
+        }
+    }
+    
+    @Test
+    public void testDrainTo() {
+        RingBufferQueue<Integer> q = new RingBufferQueue<>(capacity);
+        for (int i = 0; i < expectedCapacity; i++) {
+            q.offer(i);
+        }
+        List<Integer> batch = new ArrayList<>();
+        assertEquals((expectedCapacity + 1) / 2, q.drainTo(batch, (expectedCapacity + 1) / 2));
+        assertEquals(expectedCapacity / 2, q.drainTo(batch));
+        assertEquals(0, q.drainTo(batch));
+        for (int i = 0; i < expectedCapacity; i++) {
+            assertEquals(i, (int) batch.get(i));
+        }
+    }
+    
+    @Test
+    public void testIterator() {
+        RingBufferQueue<Integer> q = new RingBufferQueue<>(capacity);
+        assertEquals("[]", q.toString());
+        q.offer(-1);
+        q.poll();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < expectedCapacity; i++) {
+            q.offer(i);
+            expected.add(i);
+        }
+        assertEquals(expected.toString(), q.toString());
+        assertArrayEquals(expected.toArray(), q.toArray());
+        assertTrue(q.contains(expectedCapacity - 1));
+        assertFalse(q.contains(expectedCapacity));
+        assertTrue(q.containsAll(expected));
+        q.poll();
+        Iterator<Integer> it = q.iterator();
+        for (int i = 1; i < expectedCapacity; i++) {
+            assertEquals(i, (int) it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+    
+    @Test(timeout = 10000)
+    public void testDrainToWakesUpProducers() throws InterruptedException {
+        RingBufferQueue<Integer> q = new RingBufferQueue<>(capacity);
+        for (int i = 0; i < expectedCapacity; i++) {
+            q.offer(i);
+        }
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < expectedCapacity; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    q.put(-1);
+                } catch (InterruptedException e) {
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        for (Thread thread : producers) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        assertEquals(expectedCapacity, q.drainTo(new ArrayList<>()));
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertEquals(expectedCapacity, q.size());
+    }
+    
+    @Test(timeout = 10000)
+    public void testConcurrent() throws InterruptedException {
+        final int n = 100_000, threads = 4;
+        RingBufferQueue<Integer> q = new RingBufferQueue<>(capacity);
+        AtomicLong sum = new AtomicLong();
+        List<Thread> all = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            all.add(new Thread(() -> {
+                try {
+                    for (int i = 1; i <= n; i++) {
+                        q.put(i);
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+            final boolean batched = (t % 2 == 0);
+            all.add(new Thread(() -> {
+                List<Integer> batch = new ArrayList<>();
+                try {
+                    for (int i = 0; i < n;) {
+                        batch.add(q.take());
+                        if (batched) {
+                            q.drainTo(batch, n - i - 1);
+                        }
+                        for (int x : batch) {
+                            sum.addAndGet(x);
+                        }
+                        i += batch.size();
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                }
+            }));
+        }
+        for (Thread thread : all) {
+            thread.start();
+        }
+        for (Thread thread : all) {
+            thread.join();
+        }
+        assertEquals((long) threads * n * (n + 1) / 2, sum.get());
+        assertTrue(q.isEmpty());
+    }
+}
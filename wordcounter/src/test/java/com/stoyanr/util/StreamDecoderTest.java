@@ -0,0 +1,100 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class StreamDecoderTest {
+
+    private static final String[] WORDS = { "one", "straße", "日本語", "кирилица", "a𝒜b", " " };
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] { 
+            { StandardCharsets.UTF_8, 1 }, { StandardCharsets.UTF_8, 2 }, 
+            { StandardCharsets.UTF_8, 7 }, { StandardCharsets.UTF_8, 4096 }, 
+            { StandardCharsets.UTF_16LE, 3 }, { StandardCharsets.ISO_8859_1, 5 } };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final Charset charset;
+    private final int chunkSize;
+
+    public StreamDecoderTest(Charset charset, int chunkSize) {
+        this.charset = charset;
+        this.chunkSize = chunkSize;
+    }
+
+    @Test
+    public void testDecode() {
+        String text = createText();
+        byte[] bytes = text.getBytes(charset);
+        StreamDecoder decoder = new StreamDecoder(charset);
+        // Decode the same stream twice to check that the decoder is reset at the end
+        for (int k = 0; k < 2; k++) {
+            StringBuilder sb = new StringBuilder();
+            Random r = new Random(k);
+            for (int i = 0; i < bytes.length; i += chunkSize) {
+                ByteBuffer chunk = ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i));
+                CharBuffer chars = decoder.decode(chunk.slice(), false);
+                // Read only some of the chars, the rest must be returned again by the next call
+                int n = r.nextInt(chars.remaining() + 1);
+                sb.append(chars.subSequence(0, n));
+                chars.position(chars.position() + n);
+            }
+            CharBuffer chars = decoder.decode(ByteBuffer.allocate(0), true);
+            sb.append(chars);
+            chars.position(chars.limit());
+            assertEquals(new String(bytes, charset), sb.toString());
+        }
+    }
+
+    @Test
+    public void testDecodeTruncated() {
+        byte[] bytes = "a日".getBytes(StandardCharsets.UTF_8);
+        StreamDecoder decoder = new StreamDecoder(StandardCharsets.UTF_8);
+        decoder.decode(ByteBuffer.wrap(bytes, 0, 2), false);
+        assertEquals("a�", decoder.decode(ByteBuffer.allocate(0), true).toString());
+        decoder.reset();
+        assertEquals("日", decoder.decode(ByteBuffer.wrap(bytes, 1, 3), true).toString());
+    }
+
+    private String createText() {
+        Random r = new Random(chunkSize);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
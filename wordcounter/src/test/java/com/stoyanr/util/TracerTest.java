@@ -0,0 +1,111 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class TracerTest {
+
+    private static final Pattern EVENT = Pattern.compile("\"name\":\"read\"[^}]*\"tid\":(\\d+)");
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] { { 4, 10 }, { 1024, 10 }, { 1024, 0 } };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int capacity;
+    private final int n;
+
+    public TracerTest(int capacity, int n) {
+        this.capacity = capacity;
+        this.n = n;
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.disable();
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        Tracer.enable(capacity);
+        Thread thread = new Thread(this::record, "tracer \"test\"");
+        thread.start();
+        thread.join();
+        record();
+        new ForkJoinComputer<Integer>(16, 1, (lo, hi) -> hi - lo, (x, y) -> x + y, 2).compute();
+        String trace = export();
+        assertTrue(trace.startsWith("{\"traceEvents\":["));
+        // Threads that recorded no events have no buffer and are not exported
+        assertEquals(n > 0, trace.contains("\"args\":{\"name\":\"tracer \\\"test\\\"\"}"));
+        assertTrue(trace.contains("\"name\":\"compute\""));
+        assertTrue(trace.contains("\"detail\":\"[0, 16)\""));
+        int[] counts = new int[2];
+        Matcher m = EVENT.matcher(trace);
+        while (m.find()) {
+            counts[Integer.parseInt(m.group(1))]++;
+        }
+        assertEquals(Math.min(capacity, n), counts[0]);
+        assertEquals(Math.min(capacity, n), counts[1]);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        Tracer.enable(capacity);
+        Tracer.disable();
+        record();
+        assertEquals(0, Tracer.begin());
+        assertEquals("{\"traceEvents\":[\n]}\n", export());
+    }
+
+    private void record() {
+        for (int i = 0; i < n; i++) {
+            long t0 = Tracer.begin();
+            Tracer.end(Tracer.Event.READ, t0, "file " + i);
+        }
+    }
+
+    private static String export() throws IOException {
+        Path file = Files.createTempFile("wordcounter", ".json");
+        try {
+            Tracer.export(file);
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
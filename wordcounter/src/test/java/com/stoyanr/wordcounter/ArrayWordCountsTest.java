@@ -0,0 +1,71 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class ArrayWordCountsTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 0 },
+            { 1 },
+            { 17 },
+            { 10000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+
+    public ArrayWordCountsTest(int numWords) {
+        this.numWords = numWords;
+    }
+
+    @Test
+    public void testSnapshot() {
+        WordCounts wc = new WordCounts();
+        Random r = new Random(numWords);
+        for (int i = 0; i < numWords; i++) {
+            wc.add("w" + r.nextInt(numWords / 2 + 1), r.nextInt(10) + 1);
+        }
+        WordCounts expected = new WordCounts();
+        expected.add(wc);
+        WordCounts snapshot = wc.snapshot();
+        assertEquals(expected, snapshot);
+        assertEquals(0, snapshot.get("x"));
+        wc.add("w0", 1);
+        wc.add("x", 1);
+        assertEquals(expected.get("w0"), snapshot.get("w0"));
+        assertEquals(0, snapshot.get("x"));
+        assertEquals(expected, snapshot);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates the reproducible vocabularies, texts, and word counts used by the JMH benchmarks.
+ * Word lengths follow one of the distributions "short" (1 - 4 chars), "mixed" (1 - 12 chars),
+ * or "long" (8 - 24 chars). Word counts follow a Zipf-like distribution, so that a few words are
+ * very frequent and most words occur only a few times, as in natural language texts.
+ */
+final class BenchmarkTexts {
+
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+    private static final String DELIMS = " \t\n\r\f;,.:?!/\\'\"()[]{}<>+-*=~@#$%^&|`";
+    private static final long SEED = 42;
+
+    private BenchmarkTexts() {
+    }
+
+    static Random createRandom() {
+        return new Random(SEED);
+    }
+
+    static String[] createVocabulary(int size, String lengths, Random r) {
+        int min = getMinLength(lengths), max = getMaxLength(lengths);
+        if (Math.pow(ALPHABET.length(), max) < size) {
+            throw new IllegalArgumentException("Vocabulary too big for the specified lengths.");
+        }
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < size) {
+            int length = min + r.nextInt(max - min + 1);
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                sb.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+            }
+            words.add(sb.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    static String createText(String[] vocabulary, int numChars, Random r) {
+        StringBuilder sb = new StringBuilder(numChars + 32);
+        while (sb.length() < numChars) {
+            sb.append(vocabulary[getZipfIndex(vocabulary.length, r)]);
+            int numDelims = r.nextInt(3) + 1;
+            for (int i = 0; i < numDelims; i++) {
+                sb.append(DELIMS.charAt(r.nextInt(DELIMS.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    static WordCounts createWordCounts(String[] vocabulary, int parLevel) {
+        WordCounts wc = new WordCounts(parLevel);
+        for (int i = 0; i < vocabulary.length; i++) {
+            wc.add(vocabulary[i], getZipfCount(i));
+        }
+        return wc;
+    }
+
+    static int getZipfCount(int rank) {
+        return Math.max(1, 1_000_000 / (rank + 1));
+    }
+
+    private static int getZipfIndex(int size, Random r) {
+        // Approximates a Zipf distribution by sampling the rank from a log-uniform distribution
+        return Math.min(size - 1, (int) Math.exp(r.nextDouble() * Math.log(size + 1)) - 1);
+    }
+
+    private static int getMinLength(String lengths) {
+        switch (lengths) {
+        case "short":
+            return 1;
+        case "long":
+            return 8;
+        default:
+            return 1;
+        }
+    }
+
+    private static int getMaxLength(String lengths) {
+        switch (lengths) {
+        case "short":
+            return 4;
+        case "long":
+            return 24;
+        default:
+            return 12;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class CaseFolderTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { "", "" },
+            { "Hello", "hello" },
+            { "hello", "hello" },
+            { "STRASSE", "strasse" },
+            { "Straße", "straße" },
+            { "ſtar", "star" },
+            { "ΣΊΣΥΦΟΣ", "σίσυφοσ" },
+            { "σίσυφος", "σίσυφοσ" },
+            { "İstanbul", "istanbul" },
+            { "КИРИЛИЦА", "кирилица" },
+            { "𐐀𐐁", "𐐨𐐩" },
+            { "A𝒜B", "a𝒜b" },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final String word;
+    private final String expected;
+
+    public CaseFolderTest(String word, String expected) {
+        this.word = word;
+        this.expected = expected;
+    }
+
+    @Test
+    public void testFold() {
+        assertEquals(expected, CaseFolder.fold(word));
+        assertEquals(expected, CaseFolder.fold(expected));
+    }
+
+    @Test
+    public void testCountWords() {
+        String text = word + " " + expected;
+        WordCounts expectedCounts = new WordCounts();
+        if (!expected.isEmpty()) {
+            expectedCounts.add(expected, 2);
+        }
+        assertEquals(expectedCounts, WordUtils.countWords(text, (c) -> c != ' ', true));
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        assertEquals(expectedCounts, WordUtils.countWords(bytes, (c) -> c != ' ', true));
+    }
+}
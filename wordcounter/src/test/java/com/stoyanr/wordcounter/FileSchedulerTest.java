@@ -0,0 +1,84 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.stoyanr.wordcounter.WordCounter.Schedule;
+
+@RunWith(Parameterized.class)
+public class FileSchedulerTest {
+
+    // @formatter:off
+    private static final String[] FILES = { "a/1", "a/2", "b/3", "a/4", "c/5" };
+    private static final long[] SIZES = { 10, 30, 20, 5, 30 };
+    private static final String[] KEYS = { "(dev=1,ino=3)", "(dev=1,ino=1)", "(dev=1,ino=2)", 
+        "(dev=1,ino=4)", null };
+    // @formatter:on
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { Schedule.WALK, asList("a/1", "a/2", "b/3", "a/4", "c/5") },
+            { Schedule.LARGEST_FIRST, asList("a/2", "c/5", "b/3", "a/1", "a/4") },
+            { Schedule.FILE_KEY, asList("c/5", "a/2", "b/3", "a/1", "a/4") },
+            { Schedule.ROUND_ROBIN, asList("a/1", "b/3", "c/5", "a/2", "a/4") },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final Schedule schedule;
+    private final List<String> expected;
+
+    private FileScheduler scheduler;
+
+    public FileSchedulerTest(Schedule schedule, List<String> expected) {
+        this.schedule = schedule;
+        this.expected = expected;
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new FileScheduler(schedule);
+        for (int i = 0; i < FILES.length; i++) {
+            scheduler.add(Paths.get(FILES[i]), SIZES[i], KEYS[i]);
+        }
+    }
+
+    @Test
+    public void testForEach() {
+        List<String> result = new ArrayList<>();
+        scheduler.forEach((Path file, Long size) -> result.add(file.toString()));
+        assertEquals(expected, result);
+    }
+}
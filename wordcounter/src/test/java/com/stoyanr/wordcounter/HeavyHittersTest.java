@@ -0,0 +1,117 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class HeavyHittersTest {
+
+    private static final int NUM_PARTS = 5;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 10, 100, 1000 },
+            { 1000, 100, 100000 },
+            { 100000, 100, 1000000 },
+            { 100000, 1000, 1000000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int vocabulary;
+    private final int capacity;
+    private final int numWords;
+
+    private String[] words;
+    private WordCounts expected;
+
+    public HeavyHittersTest(int vocabulary, int capacity, int numWords) {
+        this.vocabulary = vocabulary;
+        this.capacity = capacity;
+        this.numWords = numWords;
+    }
+
+    @Before
+    public void setUp() {
+        Random r = new Random(vocabulary);
+        words = new String[numWords];
+        expected = new WordCounts();
+        for (int i = 0; i < numWords; i++) {
+            // Zipf-like distribution, a few words are used much more often than the rest
+            words[i] = "w" + (int) Math.pow(vocabulary, r.nextDouble());
+            expected.add(words[i], 1);
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        HeavyHitters hh = new HeavyHitters(capacity);
+        for (String word : words) {
+            hh.add(word, 1);
+        }
+        assertBounds(hh);
+    }
+
+    @Test
+    public void testMerge() {
+        HeavyHitters hh = new HeavyHitters(capacity);
+        for (int k = 0; k < NUM_PARTS; k++) {
+            HeavyHitters part = new HeavyHitters(capacity);
+            for (int i = k * numWords / NUM_PARTS; i < (k + 1) * numWords / NUM_PARTS; i++) {
+                part.add(words[i], 1);
+            }
+            hh.merge(part);
+        }
+        assertBounds(hh);
+    }
+
+    private void assertBounds(HeavyHitters hh) {
+        assertEquals(numWords, hh.getTotal());
+        assertEquals(Math.min(capacity, expected.getSize()), hh.getSize());
+        Set<String> top = new HashSet<>(asList(hh.getTop(0)));
+        expected.forEach((word, count) -> {
+            long estimate = hh.getCount(word), error = hh.getError(word);
+            assertTrue(estimate >= count);
+            assertTrue(estimate - error <= count);
+            if (count > numWords / capacity) {
+                assertTrue(top.contains(word));
+            }
+            if (capacity >= expected.getSize()) {
+                assertEquals((long) count, estimate);
+                assertEquals(0, error);
+            }
+        });
+    }
+}
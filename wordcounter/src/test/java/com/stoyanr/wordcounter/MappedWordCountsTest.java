@@ -0,0 +1,125 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class MappedWordCountsTest {
+
+    private static final String[] SUFFIXES = { "", "é", "日本", "𝒜", "Ａ" };
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 0 },
+            { 1 },
+            { 17 },
+            { 100000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+
+    private WordCounts expected;
+    private MappedWordCounts result;
+    private Path file;
+
+    public MappedWordCountsTest(int numWords) {
+        this.numWords = numWords;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        expected = new WordCounts();
+        Random r = new Random(numWords);
+        for (int i = 0; i < numWords; i++) {
+            expected.add(createWord(r.nextInt(numWords / 2 + 1)), r.nextInt(10) + 1);
+        }
+        file = Files.createTempFile("wordcounter", ".wcs");
+        expected.save(file);
+        result = WordCounts.load(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        result = null;
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testLoad() {
+        assertEquals(expected.getSize(), result.getSize());
+        assertEquals(expected, result);
+        assertEquals(result, expected);
+        assertEquals(expected.hashCode(), result.hashCode());
+        assertEquals(0, result.get(""));
+        assertEquals(0, result.get("missing"));
+        assertEquals(0, result.get("￿"));
+    }
+
+    @Test
+    public void testForEachInRange() {
+        WordCounts wc = new WordCounts();
+        int mid = result.getSize() / 3;
+        result.forEachInRange(0, mid, wc::add);
+        result.forEachInRange(mid, result.getSize(), wc::add);
+        assertEquals(expected, wc);
+    }
+
+    @Test
+    public void testFindTop() {
+        Comparator<Integer> top = (x, y) -> (y - x), bottom = (x, y) -> (x - y);
+        for (int number : new int[] { 1, 10, numWords / 2 }) {
+            int nx = Math.min(number, expected.getSize());
+            assertEquals(new WordCountAnalyzer(expected, false).findTop(nx, top), 
+                new WordCountAnalyzer(result, true).findTop(nx, top));
+            assertEquals(new WordCountAnalyzer(expected, false).findTop(nx, bottom), 
+                new WordCountAnalyzer(result, true).findTop(nx, bottom));
+        }
+        assertEquals(new WordCountAnalyzer(expected, false).getTotal(), 
+            new WordCountAnalyzer(result, true).getTotal());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSubtract() {
+        result.subtract("x", 1);
+    }
+
+    private static String createWord(int n) {
+        return "w" + Integer.toString(n, 36) + SUFFIXES[n % SUFFIXES.length];
+    }
+}
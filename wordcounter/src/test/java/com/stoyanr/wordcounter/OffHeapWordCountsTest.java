@@ -0,0 +1,110 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class OffHeapWordCountsTest {
+
+    private static final String[] SUFFIXES = { "", "é", "日本", "𝒜" };
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 0, 0 },
+            { 10, 0 },
+            { 100000, 0 },
+            { 100000, 200000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+    private final int capacity;
+
+    private WordCounts expected;
+    private WordCounts result;
+
+    public OffHeapWordCountsTest(int numWords, int capacity) {
+        this.numWords = numWords;
+        this.capacity = capacity;
+    }
+
+    @Before
+    public void setUp() {
+        expected = new WordCounts();
+        result = new OffHeapWordCounts(capacity);
+        Random r = new Random(numWords);
+        for (int i = 0; i < numWords; i++) {
+            String word = createWord(r.nextInt(numWords / 2 + 1), r);
+            int count = r.nextInt(10) + 1;
+            expected.add(word, count);
+            result.add(word, count);
+        }
+    }
+
+    @Test
+    public void testAdd() {
+        assertEquals(expected.getSize(), result.getSize());
+        assertEquals(expected, result);
+        assertEquals(result, expected);
+        assertEquals(expected.hashCode(), result.hashCode());
+    }
+
+    @Test
+    public void testForEachInRange() {
+        WordCounts wc = new WordCounts();
+        int mid = result.getSize() / 3;
+        result.forEachInRange(0, mid, wc::add);
+        result.forEachInRange(mid, result.getSize(), wc::add);
+        assertEquals(expected, wc);
+    }
+
+    @Test
+    public void testSet() {
+        expected.set("x", 42);
+        result.set("x", 42);
+        expected.set("new", 1);
+        result.set("new", 1);
+        assertEquals(42, result.get("x"));
+        assertEquals(0, result.get("missing"));
+        assertEquals(expected, result);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSubtract() {
+        result.subtract("x", 1);
+    }
+
+    private static String createWord(int n, Random r) {
+        return "w" + Integer.toString(n, 36) + SUFFIXES[n % SUFFIXES.length];
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures collecting the top (or bottom) N word counts with {@code addIfNeeded} and merging
+ * partial results with {@code add(TopWordCounts)}, as done by the fork / join tasks of
+ * {@link WordCountAnalyzer}. Word counts follow a Zipf-like distribution, so the "bottom" order
+ * has many words with equal counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopWordCountsBenchmark {
+
+    private static final int NUM_PARTS = 16;
+
+    @Param({ "10000", "1000000" })
+    private int vocabulary;
+
+    @Param({ "10", "1000" })
+    private int number;
+
+    @Param({ "top", "bottom" })
+    private String order;
+
+    private String[] words;
+    private int[] counts;
+    private Comparator<Integer> comparator;
+    private List<TopWordCounts> parts;
+
+    @Setup
+    public void setUp() {
+        words = BenchmarkTexts.createVocabulary(vocabulary, "mixed", BenchmarkTexts.createRandom());
+        counts = new int[words.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = BenchmarkTexts.getZipfCount(i);
+        }
+        comparator = order.equals("top") ? (x, y) -> (y - x) : (x, y) -> (x - y);
+        parts = new ArrayList<>();
+        for (int i = 0; i < NUM_PARTS; i++) {
+            parts.add(addIfNeeded(i * words.length / NUM_PARTS, (i + 1) * words.length / NUM_PARTS));
+        }
+    }
+
+    @Benchmark
+    public TopWordCounts addIfNeeded() {
+        return addIfNeeded(0, words.length);
+    }
+
+    @Benchmark
+    public TopWordCounts addTopWordCounts() {
+        TopWordCounts result = new TopWordCounts(number, comparator);
+        for (TopWordCounts part : parts) {
+            result.add(part);
+        }
+        return result;
+    }
+
+    private TopWordCounts addIfNeeded(int lo, int hi) {
+        TopWordCounts result = new TopWordCounts(number, comparator);
+        for (int i = lo; i < hi; i++) {
+            result.addIfNeeded(counts[i], words[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class TopWordCountsTest {
+
+    private static final Comparator<Integer> TOP = (x, y) -> (y - x);
+    private static final Comparator<Integer> BOTTOM = (x, y) -> (x - y);
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 100, 10, TOP },
+            { 100, 10, BOTTOM },
+            { 10000, 1000, TOP },
+            { 10000, 1000, BOTTOM },
+            { 10, 20, BOTTOM },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+    private final int number;
+    private final Comparator<Integer> comparator;
+
+    private List<String> words;
+    private List<Integer> counts;
+    private String expected;
+
+    public TopWordCountsTest(int numWords, int number, Comparator<Integer> comparator) {
+        this.numWords = numWords;
+        this.number = number;
+        this.comparator = comparator;
+    }
+
+    @Before
+    public void setUp() {
+        Random r = new Random(numWords);
+        words = new ArrayList<>();
+        counts = new ArrayList<>();
+        for (int i = 0; i < numWords; i++) {
+            words.add("w" + i);
+            // Many words with equal counts, especially at the bottom
+            counts.add(numWords / (r.nextInt(numWords) + 1));
+        }
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < numWords; i++) {
+            indexes.add(i);
+        }
+        Collections.sort(indexes, (i, j) -> {
+            int result = comparator.compare(counts.get(i), counts.get(j));
+            return (result != 0) ? result : words.get(i).compareTo(words.get(j));
+        });
+        StringBuilder sb = new StringBuilder();
+        for (int i : indexes.subList(0, Math.min(number, numWords))) {
+            sb.append(String.format("%20s: %d\n", words.get(i), counts.get(i)));
+        }
+        expected = sb.toString();
+    }
+
+    @Test
+    public void testAddIfNeeded() {
+        TopWordCounts twc = new TopWordCounts(number, comparator);
+        for (int i = 0; i < numWords; i++) {
+            twc.addIfNeeded(counts.get(i), words.get(i));
+        }
+        assertEquals(Math.min(number, numWords), twc.getSize());
+        assertEquals(expected, print(twc));
+    }
+
+    @Test
+    public void testAddTopWordCounts() {
+        TopWordCounts twc = new TopWordCounts(number, comparator);
+        for (int k = 0; k < 7; k++) {
+            TopWordCounts part = new TopWordCounts(number, comparator);
+            for (int i = k * numWords / 7; i < (k + 1) * numWords / 7; i++) {
+                part.addIfNeeded(counts.get(i), words.get(i));
+            }
+            twc.add(part);
+        }
+        assertEquals(Math.min(number, numWords), twc.getSize());
+        assertEquals(expected, print(twc));
+    }
+
+    private static String print(TopWordCounts twc) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        twc.print(new PrintStream(out));
+        return out.toString();
+    }
+}
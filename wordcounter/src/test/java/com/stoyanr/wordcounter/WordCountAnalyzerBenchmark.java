@@ -0,0 +1,76 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the analysis methods of {@link WordCountAnalyzer}. A thread count of 1 uses the serial
+ * implementation, any other value uses fork / join with that parallelism level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WordCountAnalyzerBenchmark {
+
+    @Param({ "10000", "1000000" })
+    private int vocabulary;
+
+    @Param({ "mixed", "long" })
+    private String lengths;
+
+    @Param({ "1", "4", "8" })
+    private int threads;
+
+    @Param({ "10" })
+    private int number;
+
+    private WordCountAnalyzer analyzer;
+
+    @Setup
+    public void setUp() {
+        WordCounts wc = BenchmarkTexts.createWordCounts(
+            BenchmarkTexts.createVocabulary(vocabulary, lengths, BenchmarkTexts.createRandom()), 1);
+        analyzer = new WordCountAnalyzer(wc, threads > 1, threads);
+    }
+
+    @Benchmark
+    public TopWordCounts findTop() {
+        return analyzer.findTop(number, (x, y) -> (y - x));
+    }
+
+    @Benchmark
+    public long getTotal() {
+        return analyzer.getTotal();
+    }
+}
@@ -39,20 +39,24 @@ public class WordCountAnalyzerTest {
     private static final WordCounts COUNTS1 = new WordCounts();
     private static final WordCounts COUNTS2 = new WordCounts();
     private static final WordCounts COUNTS3 = new WordCounts();
+    private static final WordCounts COUNTS4 = new WordCounts();
     
     private static final TopWordCounts TWC1 = new TopWordCounts(2, COMP);
     private static final TopWordCounts TWC2 = new TopWordCounts(1, COMP);
     private static final TopWordCounts TWC3 = new TopWordCounts(2, COMP);
+    private static final TopWordCounts TWC4 = new TopWordCounts(1, COMP);
 
     static {
         // @formatter:off
         COUNTS1.add("one", 3); COUNTS1.add("two", 2); COUNTS1.add("three", 1);
         COUNTS2.add("five", 2); COUNTS2.add("six", 1); COUNTS2.add("seven", 1);
         COUNTS3.add("eight", 2); COUNTS3.add("nine", 1); COUNTS3.add("ten", 1); COUNTS3.add("eleven", 1);
+        COUNTS4.add("max", Integer.MAX_VALUE); COUNTS4.add("one", 1);
         
         TWC1.add(3, asSet("one")); TWC1.add(2, asSet("two")); TWC1.add(1, asSet("three")); 
         TWC2.add(2, asSet("five")); TWC2.add(1, asSet("six", "seven")); 
         TWC3.add(2, asSet("eight")); TWC3.add(1, asSet("nine", "ten", "eleven")); 
+        TWC4.add(Integer.MAX_VALUE, asSet("max"));
         // @formatter:on
     }
 
@@ -63,6 +67,10 @@ public class WordCountAnalyzerTest {
             { COUNTS1, TWC1, 2, 6 }, 
             { COUNTS2, TWC2, 1, 4 }, 
             { COUNTS3, TWC3, 2, 5 }, 
+            { offHeap(COUNTS1), TWC1, 2, 6 }, 
+            { offHeap(COUNTS3), TWC3, 2, 5 }, 
+            { COUNTS2.snapshot(), TWC2, 1, 4 }, 
+            { COUNTS4, TWC4, 1, Integer.MAX_VALUE + 1L }, 
         };
         // @formatter:on
         return asList(data);
@@ -71,11 +79,11 @@ public class WordCountAnalyzerTest {
     private final WordCounts wc;
     private final TopWordCounts twc;
     private final int number;
-    private final int total;
+    private final long total;
 
     private WordCountAnalyzer a1, a2;
 
-    public WordCountAnalyzerTest(WordCounts wc, TopWordCounts twc, int number, int total) {
+    public WordCountAnalyzerTest(WordCounts wc, TopWordCounts twc, int number, long total) {
         this.wc = wc;
         this.twc = twc;
         this.number = number;
@@ -108,6 +116,12 @@ public class WordCountAnalyzerTest {
         assertEquals(total, a2.getTotal());
     }
 
+    private static WordCounts offHeap(WordCounts wc) {
+        WordCounts result = new OffHeapWordCounts();
+        result.add(wc);
+        return result;
+    }
+
     private static Set<String> asSet(String... strings) {
         return new HashSet<>(asList(strings));
     }
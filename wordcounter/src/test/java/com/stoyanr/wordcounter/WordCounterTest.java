@@ -19,12 +19,18 @@ package com.stoyanr.wordcounter;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -33,6 +39,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.stoyanr.util.PipelineMetrics;
+import com.stoyanr.wordcounter.WordCounter.Merging;
+import com.stoyanr.wordcounter.WordCounter.Schedule;
+import com.stoyanr.wordcounter.WordCounter.StageQueue;
+import com.stoyanr.wordcounter.WordCounter.Tokenizer;
+import com.stoyanr.wordcounter.WordCounter.Traversal;
+
 @RunWith(Parameterized.class)
 public class WordCounterTest {
 
@@ -95,6 +108,345 @@ public class WordCounterTest {
         assertEquals(combineCounts(), result);
     }
 
+    @Test
+    public void testCountWordsBytes() {
+        ByteBuffer bytes = ByteBuffer.wrap(createText().getBytes(StandardCharsets.UTF_8));
+        WordCounts result = WordUtils.countWords(bytes, Character::isAlphabetic);
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsFileBytes() throws Exception {
+        WordCounter counter = new WordCounter(createFile(), Character::isAlphabetic, null, false)
+            .setTokenizer(Tokenizer.BYTES);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsFileBytesSwar() throws Exception {
+        WordCounter counter = new WordCounter(createFile(), Character::isAlphabetic, null, false)
+            .setTokenizer(Tokenizer.BYTES).setSwar(true);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeBytesPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsFileMapped() throws Exception {
+        WordCounter counter = new WordCounter(createFile(), Character::isAlphabetic, null, false)
+            .setMapThreshold(0);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeBytesMappedPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES).setMapThreshold(0);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsFileBytesSplitPar() throws Exception {
+        WordCounter counter = new WordCounter(createFile(), Character::isAlphabetic, null, true, 3)
+            .setTokenizer(Tokenizer.BYTES).setSplitThreshold(0);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeLocalPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setMerging(Merging.LOCAL);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeBytesLocalPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES).setMerging(Merging.LOCAL);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeRingBufferPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true, 2)
+            .setQueue(StageQueue.RING_BUFFER).setQueueCapacities(8, 4);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeParallelTraversalPar() throws Exception {
+        Path dir = createTree();
+        FileUtils.writeStringToFile(dir.resolve("x").resolve("y").resolve(FILE).toFile(), 
+            "added one");
+        WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+            .setTraversal(Traversal.PARALLEL);
+        WordCounts expected = combineCounts();
+        expected.add("added", 1);
+        expected.add("one", 1);
+        assertEquals(expected, counter.count());
+    }
+
+    @Test
+    public void testCountWordsTreeBatchedPar() throws Exception {
+        Path dir = createTree();
+        for (Tokenizer tokenizer : Tokenizer.values()) {
+            for (Merging merging : Merging.values()) {
+                WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+                    .setTokenizer(tokenizer).setMerging(merging).setBatchLimits(2, 1024);
+                assertEquals(combineCounts(), counter.count());
+            }
+        }
+        WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+            .setBatchLimits(2, 1024);
+        assertEquals(combineCounts(), toWordCounts(counter.countApprox(1000)));
+    }
+
+    @Test
+    public void testCountWordsTreeScheduledPar() throws Exception {
+        Path dir = createTree();
+        for (Schedule schedule : Schedule.values()) {
+            WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+                .setSchedule(schedule).setTraversal(Traversal.PARALLEL);
+            assertEquals(combineCounts(), counter.count());
+        }
+    }
+
+    @Test
+    public void testCountWordsTreeMetricsPar() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES).setMetrics(metrics);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+        assertEquals(texts.size(), metrics.getFiles());
+        assertEquals(texts.size(), metrics.getProducedItems());
+        assertEquals(new WordCountAnalyzer(result, true).getTotal(), metrics.getWords());
+    }
+
+    @Test
+    public void testCountWordsTreeLinked() throws Exception {
+        // The link is visited with its own size, which is shorter than the file it points to
+        createFile();
+        File dir = new File(DIR);
+        deleteDir(dir);
+        dir.mkdirs();
+        Files.createSymbolicLink(Paths.get(DIR, FILE), Paths.get("..", FILE));
+        Path tree = Paths.get(dir.getPath());
+        WordCounts expected = combineCounts();
+        assertEquals(expected, new WordCounter(tree, Character::isAlphabetic, null, false).count());
+        assertEquals(expected, new WordCounter(tree, Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES).count());
+        assertEquals(expected, new WordCounter(tree, Character::isAlphabetic, null, true)
+            .setMapThreshold(0).count());
+        assertEquals(expected, new WordCounter(tree, Character::isAlphabetic, null, true)
+            .setBatchLimits(4, 1024).count());
+    }
+
+    @Test
+    public void testCountWordsTreeOffHeap() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, false)
+            .setOffHeap(true);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountWordsTreeBytesOffHeapPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES).setOffHeap(true);
+        WordCounts result = counter.count();
+        assertEquals(combineCounts(), result);
+    }
+
+    @Test
+    public void testCountApproxTree() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, false);
+        assertEquals(combineCounts(), toWordCounts(counter.countApprox(1000)));
+    }
+
+    @Test
+    public void testCountApproxTreeBytesPar() throws Exception {
+        WordCounter counter = new WordCounter(createTree(), Character::isAlphabetic, null, true)
+            .setTokenizer(Tokenizer.BYTES);
+        assertEquals(combineCounts(), toWordCounts(counter.countApprox(1000)));
+    }
+
+    @Test
+    public void testCountWordsTreeCached() throws Exception {
+        Path dir = createTree();
+        Path cache = Files.createTempFile("wordcounter", ".cache");
+        Files.delete(cache);
+        try {
+            for (boolean par : new boolean[] { false, true }) {
+                WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, par)
+                    .setCache(cache);
+                assertEquals(combineCounts(), counter.count());
+                assertEquals(combineCounts(), counter.count());
+            }
+            // Change and add files, then delete them again
+            Path file = dir.resolve("0").resolve(FILE);
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(file.toFile(), text + " one more");
+            Path added = dir.resolve("x").resolve(FILE);
+            FileUtils.writeStringToFile(added.toFile(), "added one");
+            WordCounts expected = combineCounts();
+            expected.add("one", 2);
+            expected.add("more", 1);
+            expected.add("added", 1);
+            WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+                .setCache(cache);
+            assertEquals(expected, counter.count());
+            FileUtils.writeStringToFile(file.toFile(), text);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+            deleteDir(added.getParent().toFile());
+            assertEquals(combineCounts(), counter.count());
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+    }
+
+    @Test
+    public void testCountWordsTreeCachedSettings() throws Exception {
+        Path dir = createTree();
+        FileUtils.writeStringToFile(dir.resolve("x").resolve(FILE).toFile(), "One ONE one");
+        Path cache = Files.createTempFile("wordcounter", ".cache");
+        Files.delete(cache);
+        try {
+            // Each counter finds different words in the same files, so the cache is not reused
+            WordCounter[] counters = new WordCounter[] {
+                new WordCounter(dir, Character::isAlphabetic, null, false),
+                new WordCounter(dir, (c) -> Character.isAlphabetic(c) || c == ' ', null, false),
+                new WordCounter(dir, Character::isAlphabetic, null, false)
+                    .setTokenizer(Tokenizer.BYTES),
+                new WordCounter(dir, Character::isAlphabetic, null, false)
+                    .setCharset(StandardCharsets.UTF_16),
+                new WordCounter(dir, Character::isAlphabetic, null, false).setFoldCase(true),
+            };
+            for (WordCounter counter : counters) {
+                WordCounts expected = counter.count();
+                assertEquals(expected, counter.setCache(cache).count());
+            }
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+    }
+
+    @Test
+    public void testCountWordsTreeCachedUpdates() throws Exception {
+        Path dir = createTree();
+        Path cache = Files.createTempFile("wordcounter", ".cache");
+        Files.delete(cache);
+        try {
+            PipelineMetrics metrics = new PipelineMetrics();
+            WordCounter counter = new WordCounter(dir, Character::isAlphabetic, null, true)
+                .setCache(cache).setTraversal(Traversal.PARALLEL)
+                .setSchedule(Schedule.LARGEST_FIRST).setMetrics(metrics);
+            assertEquals(combineCounts(), counter.count());
+            assertEquals(texts.size(), metrics.getFiles());
+            // Nothing changed, so nothing is counted and the cache is not written
+            long size = Files.size(cache);
+            FileTime time = Files.getLastModifiedTime(cache);
+            metrics.reset();
+            assertEquals(combineCounts(), counter.count());
+            assertEquals(0, metrics.getFiles());
+            assertEquals(time, Files.getLastModifiedTime(cache));
+            // Only the changed file is counted, and the cache doesn't keep growing
+            Path file = dir.resolve("0").resolve(FILE);
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            for (int i = 1; i <= 20; i++) {
+                FileUtils.writeStringToFile(file.toFile(), 
+                    text + String.join("", Collections.nCopies(i, " extra")));
+                WordCounts expected = combineCounts();
+                expected.add("extra", i);
+                metrics.reset();
+                assertEquals(expected, counter.count());
+                assertEquals(1, metrics.getFiles());
+                assertTrue(Files.size(cache) < 4 * size);
+            }
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+    }
+
+    @Test
+    public void testCountWordsTreeWatched() throws Exception {
+        Path dir = createTree();
+        WordCounter counter = new WordCounter(dir, Character::isAlphabetic, String::toLowerCase, 
+            true);
+        try (WordCountWatcher watcher = counter.watch()) {
+            assertEquals(combineCounts(), watcher.snapshot());
+            // Change and add files, then delete them again
+            Path file = dir.resolve("0").resolve(FILE);
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(file.toFile(), text + " One MORE");
+            Path added = dir.resolve("x").resolve("y").resolve(FILE);
+            FileUtils.writeStringToFile(added.toFile(), "added one");
+            WordCounts expected = combineCounts();
+            expected.add("one", 2);
+            expected.add("more", 1);
+            expected.add("added", 1);
+            awaitCounts(expected, watcher);
+            FileUtils.writeStringToFile(file.toFile(), text);
+            deleteDir(added.getParent().getParent().toFile());
+            awaitCounts(combineCounts(), watcher);
+        }
+    }
+
+    @Test
+    public void testCountWordsTreeWatchedFailure() throws Exception {
+        Path dir = createTree();
+        WordCounter counter = new WordCounter(dir, Character::isAlphabetic, (s) -> {
+            if (s.equals("failing")) {
+                throw new IllegalStateException("Failing word.");
+            }
+            return s.toLowerCase();
+        }, true);
+        try (WordCountWatcher watcher = counter.watch()) {
+            // A file that can't be counted doesn't stop the watcher from applying other changes
+            Path failing = dir.resolve("0").resolve("failing.txt");
+            FileUtils.writeStringToFile(failing.toFile(), "failing");
+            Path added = dir.resolve("0").resolve("added.txt");
+            FileUtils.writeStringToFile(added.toFile(), "added");
+            WordCounts expected = combineCounts();
+            expected.add("added", 1);
+            awaitCounts(expected, watcher);
+            assertEquals(expected.getTotal(), watcher.getTotal());
+            assertEquals(expected.findTop(2, (x, y) -> (y - x)), 
+                watcher.findTop(2, (x, y) -> (y - x)));
+        }
+    }
+
+    private static void awaitCounts(WordCounts expected, WordCountWatcher watcher) 
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!expected.equals(watcher.snapshot()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, watcher.snapshot());
+    }
+
+    private static WordCounts toWordCounts(HeavyHitters hh) {
+        WordCounts wc = new WordCounts();
+        for (String word : hh.getTop(0)) {
+            wc.add(word, (int) hh.getCount(word));
+        }
+        return wc;
+    }
+
     private String createText() {
         StringBuilder sb = new StringBuilder();
         for (String text : texts) {
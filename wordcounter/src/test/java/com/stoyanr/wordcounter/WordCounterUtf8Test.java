@@ -0,0 +1,242 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.stoyanr.util.CharPredicate;
+import com.stoyanr.wordcounter.WordCounter.Merging;
+import com.stoyanr.wordcounter.WordCounter.Tokenizer;
+
+@RunWith(Parameterized.class)
+public class WordCounterUtf8Test {
+
+    private static final String[] VOCABULARY = { "one", "straße", "café", "naïve", "日本語",
+        "ελληνικά", "кирилица", "a𝒜b", "x" };
+
+    private static final String DELIMS = " \t\n,.;!?«»—€😀";
+
+    private static final String FILE = "words.txt";
+
+    // The size of the buffers in which files are read
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 10, false },
+            { 10, true },
+            { 300000, false },
+            { 300000, true },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+    private final boolean par;
+
+    private String text;
+    private Path file;
+
+    public WordCounterUtf8Test(int numWords, boolean par) {
+        this.numWords = numWords;
+        this.par = par;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        text = createText();
+        File f = new File(FILE);
+        FileUtils.writeStringToFile(f, text, StandardCharsets.UTF_8.name());
+        file = Paths.get(f.getPath());
+    }
+
+    @Test
+    public void testCountWordsFileBytes() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par)
+            .setTokenizer(Tokenizer.BYTES);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesMapped() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par)
+            .setTokenizer(Tokenizer.BYTES).setMapThreshold(0);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesSplit() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par, 7)
+            .setTokenizer(Tokenizer.BYTES).setSplitThreshold(0);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesSplitMapped() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par, 7)
+            .setTokenizer(Tokenizer.BYTES).setSplitThreshold(0).setMapThreshold(0);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesSplitLocal() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, String::toLowerCase,
+            par, 7).setTokenizer(Tokenizer.BYTES).setSplitThreshold(0).setMerging(Merging.LOCAL);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, String::toLowerCase),
+            counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesIgnoreCase() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, String::toLowerCase, par)
+            .setTokenizer(Tokenizer.BYTES);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, String::toLowerCase),
+            counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesIncomplete() throws IOException {
+        // A sequence split between the first two buffers, and a last buffer holding only a word 
+        // followed by an incomplete sequence
+        byte[] bytes = new byte[BUFFER_SIZE * 2 + 3];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((i % 2 == 0) ? 'x' : ' ');
+        }
+        byte[] head = "caf\u00e9 ".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(head, 0, bytes, BUFFER_SIZE - 4, head.length);
+        byte[] tail = { 'a', 'b', (byte) 0xE2 };
+        System.arraycopy(tail, 0, bytes, BUFFER_SIZE * 2, tail.length);
+        Files.write(file, bytes);
+        WordCounts expected = WordUtils.countWords(new String(bytes, StandardCharsets.UTF_8), 
+            Character::isAlphabetic);
+        assertEquals(expected, new WordCounter(file, Character::isAlphabetic, null, par)
+            .setTokenizer(Tokenizer.BYTES).count());
+        assertEquals(expected, new WordCounter(file, Character::isAlphabetic, null, par)
+            .setTokenizer(Tokenizer.BYTES).setMapThreshold(0).count());
+    }
+
+    @Test
+    public void testCountWordsFileChars() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par)
+            .setCharset(StandardCharsets.UTF_8);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileCharsMapped() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par)
+            .setCharset(StandardCharsets.UTF_8).setMapThreshold(0);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileCharsSplitLocal() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, String::toLowerCase,
+            par, 7).setCharset(StandardCharsets.UTF_8).setSplitThreshold(0)
+            .setMerging(Merging.LOCAL);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, String::toLowerCase),
+            counter.count());
+    }
+
+    @Test
+    public void testCountWordsStringFoldCase() {
+        WordCounts result = WordUtils.countWords(text, Character::isAlphabetic, true);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, WordUtils::foldCase), 
+            result);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, String::toLowerCase), 
+            result);
+    }
+
+    @Test
+    public void testCountWordsFileCharsFoldCase() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par, 7)
+            .setCharset(StandardCharsets.UTF_8).setSplitThreshold(0).setFoldCase(true);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, WordUtils::foldCase),
+            counter.count());
+    }
+
+    @Test
+    public void testCountWordsFileBytesFoldCase() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par, 7)
+            .setTokenizer(Tokenizer.BYTES).setSplitThreshold(0).setFoldCase(true);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic, WordUtils::foldCase),
+            counter.count());
+    }
+
+    @Test
+    public void testCountWordsBytesSwar() {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        // Letters only, and a predicate with too many ASCII ranges to be classified with SWAR
+        CharPredicate[] preds = { Character::isAlphabetic, (c) -> Character.isAlphabetic(c) || 
+            DELIMS.indexOf(c) % 2 == 1 };
+        for (CharPredicate pred : preds) {
+            for (boolean foldCase : new boolean[] { false, true }) {
+                WordCounts expected = new WordCounts(), result = new WordCounts();
+                expected.add(WordUtils.countWordsToTable(bytes, pred, foldCase, false, 
+                    new WordTable()), null);
+                result.add(WordUtils.countWordsToTable(bytes, pred, foldCase, true, 
+                    new WordTable()), null);
+                assertEquals(expected, result);
+            }
+        }
+    }
+
+    @Test
+    public void testCountWordsFileBytesSwar() {
+        WordCounter counter = new WordCounter(file, Character::isAlphabetic, null, par, 7)
+            .setTokenizer(Tokenizer.BYTES).setSplitThreshold(0).setSwar(true);
+        assertEquals(WordUtils.countWords(text, Character::isAlphabetic), counter.count());
+    }
+
+    private String createText() {
+        Random r = new Random(numWords);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numWords; i++) {
+            String word = VOCABULARY[r.nextInt(VOCABULARY.length)];
+            sb.append(r.nextBoolean() ? word : word.toUpperCase());
+            int numDelims = r.nextInt(2) + 1;
+            for (int j = 0; j < numDelims; j++) {
+                int index = r.nextInt(DELIMS.length() - 1);
+                sb.append(Character.isHighSurrogate(DELIMS.charAt(index)) ?
+                    DELIMS.substring(index, index + 2) : DELIMS.substring(index, index + 1));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures merging the word counts of many text chunks into a single {@link WordCounts}, either
+ * serially or concurrently from the specified number of threads, the way the consumers of
+ * {@link WordCounter} do it. For comparison, {@code addLocal} lets each thread add its chunks to
+ * its own {@link WordTable} and merges the tables only once at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WordCountsBenchmark {
+
+    private static final int NUM_CHUNKS = 32;
+
+    @Param({ "1000", "100000" })
+    private int vocabulary;
+
+    @Param({ "short", "mixed", "long" })
+    private String lengths;
+
+    @Param({ "1", "4", "8" })
+    private int threads;
+
+    private List<WordCounts> chunks;
+    private List<WordTable> chunkTables;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        Random r = BenchmarkTexts.createRandom();
+        String[] words = BenchmarkTexts.createVocabulary(vocabulary, lengths, r);
+        chunks = new ArrayList<>();
+        chunkTables = new ArrayList<>();
+        for (int i = 0; i < NUM_CHUNKS; i++) {
+            String text = BenchmarkTexts.createText(words, BenchmarkTexts.CHUNK_SIZE / 4, r);
+            chunks.add(WordUtils.countWords(text, Character::isAlphabetic));
+            chunkTables.add(WordUtils.countWordsToTable(text, Character::isAlphabetic,
+                new WordTable()));
+        }
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public WordCounts addSer() {
+        WordCounts wc = new WordCounts();
+        for (WordCounts chunk : chunks) {
+            wc.add(chunk);
+        }
+        return wc;
+    }
+
+    @Benchmark
+    public WordCounts addPar() throws Exception {
+        final WordCounts wc = new WordCounts(threads);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int ix = i;
+            tasks.add(() -> {
+                for (int j = ix; j < chunks.size(); j += threads) {
+                    wc.add(chunks.get(j));
+                }
+                return null;
+            });
+        }
+        executor.invokeAll(tasks);
+        return wc;
+    }
+
+    @Benchmark
+    public WordCounts addLocal() throws Exception {
+        List<Callable<WordTable>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int ix = i;
+            tasks.add(() -> {
+                WordTable table = new WordTable();
+                for (int j = ix; j < chunkTables.size(); j += threads) {
+                    table.add(chunkTables.get(j));
+                }
+                return table;
+            });
+        }
+        List<Future<WordTable>> tables = executor.invokeAll(tasks);
+        WordTable table = tables.get(0).get();
+        for (int i = 1; i < tables.size(); i++) {
+            table.add(tables.get(i).get());
+        }
+        WordCounts wc = new WordCounts();
+        wc.add(table, null);
+        return wc;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class WordTableTest {
+
+    private static final int NUM_CHUNKS = 4;
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        // @formatter:off
+        Object[][] data = new Object[][] {
+            { 10, 5 },
+            { 10000, 1000 },
+            { 300000, 100000 },
+        };
+        // @formatter:on
+        return asList(data);
+    }
+
+    private final int numWords;
+    private final int numDistinct;
+
+    private List<String> chunks;
+
+    public WordTableTest(int numWords, int numDistinct) {
+        this.numWords = numWords;
+        this.numDistinct = numDistinct;
+    }
+
+    @Before
+    public void setUp() {
+        Random r = new Random(numWords);
+        chunks = new ArrayList<>();
+        for (int k = 0; k < NUM_CHUNKS; k++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < numWords / NUM_CHUNKS; i++) {
+                sb.append('w').append(Integer.toString(r.nextInt(numDistinct), 36)).append(' ');
+            }
+            chunks.add(sb.toString());
+        }
+    }
+
+    @Test
+    public void testReset() {
+        WordTable table = new WordTable();
+        for (String chunk : chunks) {
+            WordUtils.countWordsToTable(chunk, Character::isLetterOrDigit, table);
+            Map<String, Integer> result = new HashMap<>();
+            table.forEach(result::put);
+            assertEquals(count(chunk), result);
+            assertEquals(result.size(), table.getSize());
+            table.reset();
+            assertEquals(0, table.getSize());
+        }
+    }
+
+    @Test
+    public void testResetRetainsKeys() {
+        WordTable table = new WordTable();
+        Map<String, String> keys = new HashMap<>();
+        table.add("w0", 0, 2, "w0".hashCode(), 1);
+        table.forEach((word, count) -> keys.put(word, word));
+        table.reset();
+        WordUtils.countWordsToTable(chunks.get(0), Character::isLetterOrDigit, table);
+        table.add("w0", 0, 2, "w0".hashCode(), 1);
+        table.forEach((word, count) -> {
+            if (word.equals("w0")) {
+                assertSame(keys.get(word), word);
+            }
+        });
+    }
+
+    @Test
+    public void testAdd() {
+        WordTable table = new WordTable();
+        Map<String, Integer> expected = new HashMap<>();
+        for (String chunk : chunks) {
+            WordTable chunkTable = new WordTable();
+            WordUtils.countWordsToTable(chunk, Character::isLetterOrDigit, chunkTable);
+            table.add(chunkTable);
+            count(chunk).forEach((word, count) -> expected.merge(word, count, Integer::sum));
+        }
+        Map<String, Integer> result = new HashMap<>();
+        table.forEach(result::put);
+        assertEquals(expected, result);
+        assertEquals(numWords / NUM_CHUNKS * NUM_CHUNKS, table.getTotal());
+    }
+
+    private static Map<String, Integer> count(String chunk) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : chunk.split(" ")) {
+            counts.merge(word, 1, Integer::sum);
+        }
+        return counts;
+    }
+}
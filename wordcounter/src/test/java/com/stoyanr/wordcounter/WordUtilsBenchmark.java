@@ -0,0 +1,133 @@
+/*
+ * $Id: $
+ *
+ * Copyright 2012 Stoyan Rachev (stoyanr@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stoyanr.wordcounter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.stoyanr.util.CharClassPredicate;
+import com.stoyanr.util.CharPredicate;
+
+/**
+ * Measures the throughput of counting the words in a single text chunk of the size read by
+ * {@link WordCounter}, either into a new {@link WordCounts} or into a reused {@link WordTable}.
+ * Counting regardless of case is measured on a text in which every other word is capitalized, 
+ * both with {@code String::toLowerCase} and with case folding in the tokenizer. Testing chars with 
+ * {@code Character::isAlphabetic} is compared to looking them up in a {@link CharClassPredicate}, 
+ * and scanning bytes one at a time is compared to scanning 8 bytes at a time (SWAR).
+ * Run with {@code -prof gc} to see the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WordUtilsBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int vocabulary;
+
+    @Param({ "short", "mixed", "long" })
+    private String lengths;
+
+    private String text;
+    private String mixedText;
+    private ByteBuffer bytes;
+    private final WordTable table = new WordTable();
+    private final CharPredicate charClass = 
+        CharClassPredicate.of(CharClassPredicate.ALPHABETIC, "");
+
+    @Setup
+    public void setUp() {
+        Random r = BenchmarkTexts.createRandom();
+        String[] words = BenchmarkTexts.createVocabulary(vocabulary, lengths, r);
+        text = BenchmarkTexts.createText(words, BenchmarkTexts.CHUNK_SIZE, r);
+        bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < words.length; i += 2) {
+            words[i] = Character.toUpperCase(words[i].charAt(0)) + words[i].substring(1);
+        }
+        mixedText = BenchmarkTexts.createText(words, BenchmarkTexts.CHUNK_SIZE, r);
+    }
+
+    @Benchmark
+    public WordCounts countWords() {
+        return WordUtils.countWords(text, Character::isAlphabetic);
+    }
+
+    @Benchmark
+    public WordCounts countWordsBytes() {
+        return WordUtils.countWords(bytes, Character::isAlphabetic);
+    }
+
+    @Benchmark
+    public WordCounts countWordsToLowerCase() {
+        return WordUtils.countWords(mixedText, Character::isAlphabetic, String::toLowerCase);
+    }
+
+    @Benchmark
+    public WordCounts countWordsFoldCase() {
+        return WordUtils.countWords(mixedText, Character::isAlphabetic, true);
+    }
+
+    @Benchmark
+    public int countWordsTable() {
+        table.reset();
+        return WordUtils.countWordsToTable(text, Character::isAlphabetic, table).getSize();
+    }
+
+    @Benchmark
+    public int countWordsTableCharClass() {
+        table.reset();
+        return WordUtils.countWordsToTable(text, charClass, table).getSize();
+    }
+
+    @Benchmark
+    public int countWordsTableFoldCase() {
+        table.reset();
+        return WordUtils.countWordsToTable(mixedText, Character::isAlphabetic, true, table)
+            .getSize();
+    }
+
+    @Benchmark
+    public int countWordsBytesTable() {
+        table.reset();
+        return WordUtils.countWordsToTable(bytes, Character::isAlphabetic, table).getSize();
+    }
+
+    @Benchmark
+    public int countWordsBytesTableSwar() {
+        table.reset();
+        return WordUtils.countWordsToTable(bytes, Character::isAlphabetic, false, true, table)
+            .getSize();
+    }
+}